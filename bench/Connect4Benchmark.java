@@ -0,0 +1,592 @@
+/**
+ * Connect4Benchmark.java
+ * measures the hot paths of the game engine: the Connect4Logic calls
+ * made for every move over early, mid and late game sequences and over
+ * games ending in a win or a draw, the static evaluation used at the
+ * leaves of depth-limited searches and its batch versions, scalar and
+ * vector, per position, plus the solver's nodes per second
+ * on fixed positions, its counters under each move ordering, and the
+ * Monte Carlo player's playouts per second.
+ *
+ * Each benchmark is warmed up, then timed over several rounds. Along
+ * with the time per operation it reports the bytes allocated per
+ * operation by the benchmark thread, so allocation in a hot path shows
+ * up as clearly as a slowdown.
+ *
+ * Every benchmark runs in a JVM of its own, started with the same java
+ * command, options and class path as this one. In a shared JVM the
+ * call site timing the operations would have seen every benchmark run
+ * before, and once it has seen a few the JIT stops inlining through it,
+ * so a benchmark's figures would depend on the ones run ahead of it.
+ * -single runs one benchmark, named in full, in this JVM.
+ *
+ * usage, from the project root:
+ * javac -d out src/Connect4Logic.java src/Connect4Geometry.java src/Connect4Solver.java
+ *       src/Connect4TranspositionTable.java src/Connect4OpeningBook.java src/Connect4Tablebase.java
+ *       src/Connect4SearchStats.java src/Connect4Evaluator.java src/Connect4Player.java
+ *       src/Connect4MCTSPlayer.java src/Connect4BatchEvaluator.java
+ *       bench/Connect4Benchmark.java
+ * java -cp out Connect4Benchmark
+ * java -cp out Connect4Benchmark <filter>
+ * java -cp out Connect4Benchmark -single <name>
+ *
+ * The vector batch benchmarks need vector/Connect4VectorBatchEvaluator.java
+ * compiled in as well, and the incubator module at compile and run time:
+ * javac --add-modules jdk.incubator.vector -d out ... vector/Connect4VectorBatchEvaluator.java
+ * java --add-modules jdk.incubator.vector -cp out Connect4Benchmark batch
+ */
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class Connect4Benchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final long ROUND_NANOS = 200000000L;
+    private static final long SEQUENCE_SEED = 2016;
+    private static final int BATCH_POSITIONS = 4096;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile long sink;
+
+    private String filter;
+    private boolean single;
+    private List<String> names;
+
+
+    /**
+     * Constructor for the Connect4Benchmark object
+     * @param filter only benchmarks whose name contains the filter are run
+     * @param single true to run the one benchmark named by the filter in
+     * this JVM, false to only list the benchmarks the filter selects
+     */
+    public Connect4Benchmark(String filter, boolean single) {
+        this.filter = filter;
+        this.single = single;
+        this.names = single ? null : new ArrayList<>();
+    }
+
+
+    /**
+     * Main function of the benchmark harness
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length > 1 && args[0].equals("-single")) {
+            all(new Connect4Benchmark(args[1], true));
+            return;
+        }
+        Connect4Benchmark lister = new Connect4Benchmark((args.length > 0) ? args[0] : "", false);
+        all(lister);
+        try {
+            for (String name : lister.names) {
+                fork(name);
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Run one benchmark in a new JVM, with the command, options and
+     * class path of this one, and wait for it to finish
+     * @param name the full name of the benchmark
+     * @throws IOException if the JVM cannot be started
+     * @throws InterruptedException if interrupted while waiting for it
+     */
+    private static void fork(String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Connect4Benchmark.class.getName());
+        command.add("-single");
+        command.add(name);
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (status != 0) {
+            System.out.printf("%-20s failed, exit status %d%n", name, status);
+        }
+    }
+
+
+    /**
+     * Go through every benchmark, running or listing those selected
+     * @param bench the harness
+     */
+    private static void all(Connect4Benchmark bench) {
+        int[] draw = playout(false);
+        int[] win = playout(true);
+
+        bench.replay("replay.early", prefix(draw, 8));
+        bench.replay("replay.mid", prefix(draw, 20));
+        bench.replay("replay.late", prefix(draw, 36));
+        bench.replay("replay.win", win);
+        bench.replay("replay.draw", draw);
+
+        bench.verifyMove("verifyMove.late", prefix(draw, 36));
+        bench.isWin("isWin.win", win);
+        bench.isDraw("isDraw.draw", draw);
+        bench.reset("reset");
+        bench.toString("toString.late", prefix(draw, 36));
+        bench.evaluate("evaluate.mid", prefix(draw, 20));
+        bench.batch("batch.scalar", Connect4BatchEvaluator.scalar(Connect4Geometry.STANDARD));
+        bench.batch("batch.vector", Connect4BatchEvaluator.of(Connect4Geometry.STANDARD));
+
+        bench.solve("solver.mid", new int[] {3, 3, 3, 3, 2, 4, 2, 4, 1, 5, 0, 0});
+        bench.solve("solver.late", prefix(draw, 14));
+        bench.ordering("solver.order.center", 0);
+        bench.ordering("solver.order.threats", Connect4Solver.ORDER_THREATS);
+        bench.ordering("solver.order.killers", Connect4Solver.ORDER_THREATS
+                                              | Connect4Solver.ORDER_KILLERS);
+        bench.ordering("solver.order.history", Connect4Solver.ORDER_THREATS
+                                              | Connect4Solver.ORDER_HISTORY);
+
+        bench.mcts("mcts.guided", true);
+        bench.mcts("mcts.random", false);
+    }
+
+
+    /**
+     * Check if a benchmark is to be run in this JVM. When only listing,
+     * a benchmark the filter selects is added to the list instead.
+     * @param name the full name of the benchmark
+     * @return true to run it now
+     */
+    private boolean selected(String name) {
+        if (single) {
+            return name.equals(filter);
+        }
+        if (name.contains(filter)) {
+            names.add(name);
+        }
+        return false;
+    }
+
+
+    /**
+     * Play a random game with a fixed seed, so every run benchmarks
+     * the same moves
+     * @param win true for a game that ends in a win, false for a draw
+     * @return the columns played, in order
+     */
+    private static int[] playout(boolean win) {
+        Random rand = new Random(SEQUENCE_SEED);
+        Connect4Logic game = new Connect4Logic();
+        while (true) {
+            game.reset();
+            int[] moves = new int[game.getRows() * game.getColumns()];
+            int count = 0;
+            while (true) {
+                int col = rand.nextInt(game.getColumns());
+                if (!game.verifyMove(col)) {
+                    continue;
+                }
+                game.makeMove(col);
+                moves[count++] = col;
+                if (game.isWin()) {
+                    if (win) {
+                        return prefix(moves, count);
+                    }
+                    break;
+                }
+                if (game.isDraw()) {
+                    if (!win) {
+                        return moves;
+                    }
+                    break;
+                }
+                game.switchTurns();
+            }
+        }
+    }
+
+
+    /**
+     * Copy the first moves of a sequence
+     * @param moves the sequence to copy
+     * @param length the number of moves to keep
+     * @return the shorter sequence
+     */
+    private static int[] prefix(int[] moves, int length) {
+        int[] result = new int[length];
+        System.arraycopy(moves, 0, result, 0, length);
+        return result;
+    }
+
+
+    /**
+     * Play a sequence of moves onto a game
+     * @param game the game to play on
+     * @param moves the columns to play
+     */
+    private static void play(Connect4Logic game, int[] moves) {
+        for (int i = 0; i < moves.length; i++) {
+            game.makeMove(moves[i]);
+            if (i < moves.length - 1) {
+                game.switchTurns();
+            }
+        }
+    }
+
+
+    /**
+     * Benchmark the calls a controller makes for every move of a game:
+     * verifyMove, makeMove, isWin, isDraw and switchTurns
+     * @param name the name of the benchmark
+     * @param moves the game to replay
+     */
+    private void replay(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        run(name, moves.length, new Operation() {
+            public long run() {
+                long result = 0;
+                game.reset();
+                for (int i = 0; i < moves.length; i++) {
+                    if (game.verifyMove(moves[i])) {
+                        result += game.makeMove(moves[i]);
+                        if (game.isWin() || game.isDraw()) {
+                            break;
+                        }
+                        game.switchTurns();
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark verifyMove on every column of a position
+     * @param name the name of the benchmark
+     * @param moves the moves leading to the position
+     */
+    private void verifyMove(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        play(game, moves);
+        run(name, game.getColumns(), new Operation() {
+            public long run() {
+                long result = 0;
+                for (int col = 0; col < game.getColumns(); col++) {
+                    result += game.verifyMove(col) ? 1 : 0;
+                }
+                return result;
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark the move that ends a game followed by isWin, so the win
+     * check is not answered from the cache of an earlier call
+     * @param name the name of the benchmark
+     * @param moves a game ending in a win
+     */
+    private void isWin(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        play(game, prefix(moves, moves.length - 1));
+        game.switchTurns();
+        int last = moves[moves.length - 1];
+        run(name, 1, new Operation() {
+            public long run() {
+                game.makeMove(last);
+                long result = game.isWin() ? 1 : 0;
+                game.undoMove();
+                return result;
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark isDraw on a full game board
+     * @param name the name of the benchmark
+     * @param moves a game ending in a draw
+     */
+    private void isDraw(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        play(game, moves);
+        run(name, 1, new Operation() {
+            public long run() {
+                return game.isDraw() ? 1 : 0;
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark reset
+     * @param name the name of the benchmark
+     */
+    private void reset(String name) {
+        Connect4Logic game = new Connect4Logic();
+        run(name, 1, new Operation() {
+            public long run() {
+                game.reset();
+                return game.getCurrentMove();
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark toString on a position
+     * @param name the name of the benchmark
+     * @param moves the moves leading to the position
+     */
+    private void toString(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        play(game, moves);
+        run(name, 1, new Operation() {
+            public long run() {
+                return game.toString().length();
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark the static evaluation of a position
+     * @param name the name of the benchmark
+     * @param moves the moves leading to the position
+     */
+    private void evaluate(String name, int[] moves) {
+        Connect4Logic game = new Connect4Logic();
+        play(game, moves);
+        game.switchTurns();
+        Connect4Evaluator evaluator = Connect4Evaluator.of(game.getGeometry());
+        run(name, 1, new Operation() {
+            public long run() {
+                return evaluator.evaluate(game);
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark a batch evaluator on random positions, reporting the
+     * time per position
+     * @param name the prefix of the names of the benchmarks
+     * @param batch the batch evaluator
+     */
+    private void batch(String name, Connect4BatchEvaluator batch) {
+        // not short-circuited, so a listing gets all three
+        if (!(selected(name + ".evaluate") | selected(name + ".wins")
+              | selected(name + ".playable"))) {
+            return;
+        }
+        if (name.endsWith("vector") && batch.getImplementation().equals("scalar")) {
+            System.out.printf("%-20s not available%n", name);
+            return;
+        }
+        Random rand = new Random(SEQUENCE_SEED);
+        long[] current = new long[BATCH_POSITIONS];
+        long[] occupied = new long[BATCH_POSITIONS];
+        for (int i = 0; i < BATCH_POSITIONS; i++) {
+            Connect4Logic game = new Connect4Logic();
+            int discs = rand.nextInt(game.getRows() * game.getColumns());
+            while (game.getMoveCount() < discs) {
+                int col = rand.nextInt(game.getColumns());
+                if (game.verifyMove(col)) {
+                    game.makeMove(col);
+                    game.switchTurns();
+                }
+            }
+            current[i] = game.getCurrentMask();
+            occupied[i] = game.getOccupiedMask();
+        }
+        int[] scores = new int[BATCH_POSITIONS];
+        boolean[] wins = new boolean[BATCH_POSITIONS];
+        long[] playable = new long[BATCH_POSITIONS];
+        run(name + ".evaluate", BATCH_POSITIONS, new Operation() {
+            public long run() {
+                batch.evaluate(current, occupied, BATCH_POSITIONS, scores);
+                return scores[0];
+            }
+        });
+        run(name + ".wins", BATCH_POSITIONS, new Operation() {
+            public long run() {
+                batch.findWins(current, BATCH_POSITIONS, wins);
+                return wins[0] ? 1 : 0;
+            }
+        });
+        run(name + ".playable", BATCH_POSITIONS, new Operation() {
+            public long run() {
+                batch.findPlayable(occupied, BATCH_POSITIONS, playable);
+                return playable[0];
+            }
+        });
+    }
+
+
+    /**
+     * Benchmark the solver on a position, with an empty transposition
+     * table for every solve
+     * @param name the name of the benchmark
+     * @param moves the moves leading to the position
+     */
+    private void solve(String name, int[] moves) {
+        if (!selected(name)) {
+            return;
+        }
+        Connect4Logic game = new Connect4Logic();
+        play(game, moves);
+        game.switchTurns();
+        Connect4Solver solver = new Connect4Solver();
+        long nodes = 0;
+        long nanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            solver.getTable().clear();
+            Connect4Solver.Result result = solver.solve(game);
+            if (round >= WARMUP_ROUNDS) {
+                nodes += result.getNodes();
+                nanos += result.getNanos();
+            }
+        }
+        System.out.printf("%-20s %12d nodes/s  %10d nodes/solve%n", name,
+                          nodes * 1000000000L / Math.max(nanos, 1),
+                          nodes / MEASURED_ROUNDS);
+    }
+
+
+    /**
+     * Compare move orderings by solving the same random midgame
+     * positions with each, printing the counters of all the searches
+     * @param name the name of the benchmark
+     * @param ordering the Connect4Solver.ORDER_ flags to use
+     */
+    private void ordering(String name, int ordering) {
+        if (!selected(name)) {
+            return;
+        }
+        Random rand = new Random(SEQUENCE_SEED);
+        Connect4Solver solver = new Connect4Solver();
+        solver.setMoveOrdering(ordering);
+        Connect4SearchStats stats = Connect4SearchStats.EMPTY;
+        long nanos = 0;
+        int solved = 0;
+        while (solved < 10) {
+            Connect4Logic game = new Connect4Logic();
+            boolean over = false;
+            int discs = 10 + rand.nextInt(4);
+            while (game.getMoveCount() < discs && !over) {
+                int col = rand.nextInt(game.getColumns());
+                if (game.verifyMove(col)) {
+                    game.makeMove(col);
+                    over = game.isWin() || game.isDraw();
+                    game.switchTurns();
+                }
+            }
+            if (!over) {
+                solver.getTable().clear();
+                Connect4Solver.Result result = solver.solve(game);
+                stats = stats.plus(result.getStats());
+                nanos += result.getNanos();
+                solved++;
+            }
+        }
+        System.out.printf("%-20s %8d ms  %s%n", name, nanos / 1000000L, stats);
+    }
+
+
+    /**
+     * Benchmark the Monte Carlo player from the empty board, with one
+     * search thread per core
+     * @param name the name of the benchmark
+     * @param guided true for guided playouts, false for random playouts
+     */
+    private void mcts(String name, boolean guided) {
+        if (!selected(name)) {
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        Connect4MCTSPlayer player = new Connect4MCTSPlayer(
+            threads, 200000, Connect4MCTSPlayer.DEFAULT_NODES,
+            Connect4MCTSPlayer.DEFAULT_EXPLORATION, guided);
+        Connect4Logic game = new Connect4Logic();
+        long playouts = 0;
+        long nanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            sink += player.chooseMove(game);
+            if (round >= WARMUP_ROUNDS) {
+                playouts += player.getPlayouts();
+                nanos += player.getNanos();
+            }
+        }
+        player.shutdown();
+        System.out.printf("%-20s %12d playouts/s  %d threads%n", name,
+                          playouts * 1000000000L / Math.max(nanos, 1), threads);
+    }
+
+
+    /**
+     * Warm up and time an operation, then print the time and the bytes
+     * allocated per call
+     * @param name the name of the benchmark
+     * @param callsPerRun the number of engine calls one run stands for
+     * @param operation the operation to time
+     */
+    private void run(String name, int callsPerRun, Operation operation) {
+        if (!selected(name)) {
+            return;
+        }
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        long bytes = 0;
+        long calls = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long runs = 0;
+            long result = 0;
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                for (int i = 0; i < 1000; i++) {
+                    result += operation.run();
+                }
+                runs += 1000;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < ROUND_NANOS);
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            sink += result;
+            if (round >= WARMUP_ROUNDS) {
+                double perCall = (double) elapsed / (runs * callsPerRun);
+                best = Math.min(best, perCall);
+                total += perCall;
+                bytes += allocated;
+                calls += runs * callsPerRun;
+            }
+        }
+        System.out.printf("%-20s %10.2f ns/op (best %.2f)  %8.2f B/op%n", name,
+                          total / MEASURED_ROUNDS, best, (double) bytes / calls);
+    }
+
+
+    /**
+     * One timed call of a benchmark
+     */
+    private interface Operation {
+
+
+        /**
+         * Run the operation once
+         * @return a value derived from the result, so the call cannot be
+         * optimized away
+         */
+        long run();
+    }
+
+
+}
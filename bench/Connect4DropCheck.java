@@ -0,0 +1,376 @@
+/**
+ * Connect4DropCheck.java
+ * checks that the server notices clients whose connections fail. It
+ * starts a Connect4Server in this JVM in the mode asked for and plays
+ * through each case with plain sockets:
+ *
+ * queued reset    a client waiting for a quick match resets its
+ *                 connection; its game must leave the lobby, and the
+ *                 next two clients must be paired with each other
+ * mid-game reset  a client resets its connection during a game; its
+ *                 opponent must get DISCONNECT and the game must leave
+ *                 the lobby
+ * stalled readers more clients than the server has game workers stop
+ *                 reading while their opponents flood them with NAME
+ *                 lines; another game must still get its moves played,
+ *                 and every flooding client must get DISCONNECT
+ *
+ * A reset is a close with SO_LINGER 0, which sends RST instead of FIN,
+ * so the server sees a failed read rather than the end of the stream.
+ * Prints every case with PASS or FAIL, and exits with status 1 if any
+ * failed.
+ *
+ * usage, from the project root, after compiling the server classes and
+ * this file into out:
+ * java -cp out Connect4DropCheck <thread|virtual|nio>
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+public class Connect4DropCheck {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long SETTLE_MILLIS = 300;
+    private static final int WORKERS = 2;
+    private static final int STALLED = 2 * WORKERS;
+    private static final int FLOOD_LINES = 40000;
+    private static final String LONG_NAME = "x".repeat(400);
+
+    private int port;
+    private int failures;
+
+
+    /**
+     * Constructor for the Connect4DropCheck object
+     * @param port the port of the server
+     */
+    public Connect4DropCheck(int port) {
+        this.port = port;
+    }
+
+
+    /**
+     * Main function of the check
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: java Connect4DropCheck <thread|virtual|nio>");
+            return;
+        }
+        int failures;
+        try {
+            failures = start(args[0]).runAll();
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            System.out.println(e.getMessage());
+            failures = 1;
+        } catch (InterruptedException e) {
+            failures = 1;
+        }
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+
+    /**
+     * Start a server in this JVM, on a free port
+     * @param mode the server mode
+     * @return the check, for the server started
+     * @throws IOException if no port is free
+     */
+    private static Connect4DropCheck start(String mode) throws IOException {
+        if (mode.equals("virtual")) {
+            Connect4Server.virtualThreads();
+        }
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(() -> {
+            try {
+                new Connect4Server(Connect4Geometry.STANDARD, WORKERS).serve(mode, port, 2);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        return new Connect4DropCheck(port);
+    }
+
+
+    /**
+     * Run every case
+     * @return the number of cases failed
+     * @throws IOException if the server cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int runAll() throws IOException, InterruptedException {
+        queuedReset();
+        midGameReset();
+        stalledReaders();
+        return failures;
+    }
+
+
+    /**
+     * A client waiting for a quick match resets its connection
+     * @throws IOException if the server cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void queuedReset() throws IOException, InterruptedException {
+        Client alice = new Client("alice");
+        check("queued reset: game opened", list().contains("OPEN 6 7 4 alice"));
+        alice.reset();
+        Thread.sleep(SETTLE_MILLIS);
+        check("queued reset: game left the lobby", list().equals("GAMES 0"));
+        Client bob = new Client("bob");
+        Client carol = new Client("carol");
+        check("queued reset: next clients paired",
+              "NAME carol".equals(bob.expect("NAME"))
+              && "NAME bob".equals(carol.expect("NAME")));
+        bob.close();
+        carol.close();
+        Thread.sleep(SETTLE_MILLIS);
+    }
+
+
+    /**
+     * A client resets its connection during a game
+     * @throws IOException if the server cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void midGameReset() throws IOException, InterruptedException {
+        Client dave = new Client("dave");
+        Client erin = new Client("erin");
+        check("mid-game reset: game started", erin.expect("MESSAGE Players") != null);
+        dave.reset();
+        check("mid-game reset: opponent told", erin.expect("DISCONNECT") != null);
+        Thread.sleep(SETTLE_MILLIS);
+        check("mid-game reset: game left the lobby", list().equals("GAMES 0"));
+        erin.close();
+    }
+
+
+    /**
+     * Clients stop reading during their games while their opponents
+     * flood them, and another game goes on
+     * @throws IOException if the server cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void stalledReaders() throws IOException, InterruptedException {
+        Client[] flooders = new Client[STALLED];
+        Client[] stalled = new Client[STALLED];
+        for (int i = 0; i < STALLED; i++) {
+            stalled[i] = new Client("stalled" + i, false);
+            flooders[i] = new Client("flooder" + i);
+            flooders[i].expect("MESSAGE Players");
+        }
+        for (int line = 0; line < FLOOD_LINES / STALLED; line++) {
+            for (Client flooder : flooders) {
+                flooder.send("DISPLAY " + LONG_NAME);
+            }
+        }
+        Client red = new Client("red");
+        Client yellow = new Client("yellow");
+        // the game picks who moves first
+        String turn = red.expect("SET");
+        Client first = "SET r".equals(turn) ? red : yellow;
+        Client second = (first == red) ? yellow : red;
+        first.send("MOVE 3");
+        check("stalled readers: other game moves", first.expect("VALID_MOVE") != null
+              && second.expect("OPPONENT_MOVED") != null);
+        boolean told = true;
+        for (Client flooder : flooders) {
+            told &= flooder.expect("DISCONNECT") != null;
+            flooder.close();
+        }
+        check("stalled readers: opponents told", told);
+        for (Client client : stalled) {
+            client.close();
+        }
+        red.close();
+        yellow.close();
+    }
+
+
+    /**
+     * Get the lobby listing, on one line
+     * @return the GAMES line and the GAME lines, separated by " | "
+     * @throws IOException if the server cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private String list() throws IOException, InterruptedException {
+        Client lister = new Client(null);
+        lister.send("LIST");
+        String head = lister.expect("GAMES");
+        StringBuilder listing = new StringBuilder(String.valueOf(head));
+        int count = (head == null) ? 0 : Integer.parseInt(head.substring(6));
+        for (int i = 0; i < count; i++) {
+            listing.append(" | ").append(lister.expect("GAME "));
+        }
+        lister.close();
+        return listing.toString();
+    }
+
+
+    /**
+     * Print the outcome of one case and count it if it failed
+     * @param name the name of the case
+     * @param passed true if the case passed
+     */
+    private void check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+
+    /**
+     * One client, with a thread reading its lines into a queue
+     */
+    private class Client {
+
+        private Socket socket;
+        private PrintWriter out;
+        private BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+
+        /**
+         * Constructor for the Client object, connecting to the server
+         * @param name the name sent to ask for a quick match, or null to
+         * send nothing yet
+         * @throws IOException if the server cannot be reached
+         */
+        Client(String name) throws IOException {
+            this(name, true);
+        }
+
+
+        /**
+         * Constructor for the Client object, connecting to the server
+         * @param name the name sent to ask for a quick match, or null to
+         * send nothing yet
+         * @param reading false for a client that never reads, with a
+         * small receive buffer
+         * @throws IOException if the server cannot be reached
+         */
+        Client(String name, boolean reading) throws IOException {
+            socket = connect(reading ? 0 : 4096);
+            out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Thread reader = new Thread(() -> {
+                if (!reading) {
+                    return;
+                }
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException e) {}
+            });
+            reader.setDaemon(true);
+            reader.start();
+            if (name != null) {
+                send("DISPLAY " + name);
+                try {
+                    Thread.sleep(SETTLE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+
+        /**
+         * Connect to the server, retrying while it starts
+         * @param receiveBuffer the size of the receive buffer, 0 for the
+         * default
+         * @return the connected socket
+         * @throws IOException if the server cannot be reached
+         */
+        private Socket connect(int receiveBuffer) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                Socket socket = new Socket();
+                try {
+                    if (receiveBuffer > 0) {
+                        socket.setReceiveBufferSize(receiveBuffer);
+                    }
+                    socket.connect(new InetSocketAddress("localhost", port));
+                    return socket;
+                } catch (IOException e) {
+                    socket.close();
+                    if (attempt == 50) {
+                        throw e;
+                    }
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Send one line to the server
+         * @param line the line
+         */
+        void send(String line) {
+            out.println(line);
+        }
+
+
+        /**
+         * Wait for a line, skipping the others
+         * @param prefix the start of the line
+         * @return the line, or null if it did not come in time
+         * @throws InterruptedException if interrupted while waiting
+         */
+        String expect(String prefix) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (true) {
+                String line = lines.poll(end - System.currentTimeMillis(),
+                                         TimeUnit.MILLISECONDS);
+                if (line == null || line.startsWith(prefix)) {
+                    return line;
+                }
+            }
+        }
+
+
+        /**
+         * Reset the connection, sending RST instead of FIN
+         * @throws IOException if the socket cannot be closed
+         */
+        void reset() throws IOException {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+
+        /**
+         * Close the connection
+         * @throws IOException if the socket cannot be closed
+         */
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+
+}
@@ -0,0 +1,409 @@
+/**
+ * Connect4LoadTest.java
+ * compares the server modes under load. It starts a Connect4Server in
+ * this JVM in the mode asked for, connects two clients per game, and
+ * has every game played to the end a number of times in a row through
+ * rematches, each client picking a random open column on its turn.
+ *
+ * The clients all run on one thread with non-blocking channels, so
+ * they cost the same in every mode and the differences come from the
+ * server. Reported are the time to be seated, from connecting to the
+ * start of the game, the move round trip, from sending MOVE to
+ * reading VALID_MOVE, the platform threads of the process and its heap
+ * and resident memory with every client still connected. Virtual
+ * threads are not platform threads and do not show in the count.
+ *
+ * Every client waits for its answer before moving again, so once the
+ * server is saturated the round trip is the number of games over the
+ * moves played per second: a mode playing fewer moves per second shows
+ * a longer round trip in proportion. Run with few games as well to see
+ * the round trip of a server that is not saturated.
+ *
+ * Lobby pollers, if asked for, are extra clients sending LIST again as
+ * soon as each listing has arrived, for as long as the games last, to
+ * show what polling the lobby costs the games.
+ *
+ * usage, from the project root, after compiling the server classes and
+ * this file into out:
+ * java -cp out Connect4LoadTest <thread|virtual|nio>
+ *      [games [rounds [event loops [lobby pollers]]]]
+ */
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+public class Connect4LoadTest {
+
+    private static final int DEFAULT_GAMES = 1000;
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final long STALL_NANOS = 30000000000L;
+
+    private Connect4Geometry geometry = Connect4Geometry.STANDARD;
+    private long[] latencies;
+    private int samples;
+    private long[] seatings;
+    private int seated;
+    private long listings;
+    private int playing;
+
+
+    /**
+     * Main function of the load test
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: java Connect4LoadTest <thread|virtual|nio> "
+                               + "[games [rounds [event loops [lobby pollers]]]]");
+            return;
+        }
+        try {
+            int games = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_GAMES;
+            int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+            int threads = (args.length > 3) ? Integer.parseInt(args[3])
+                                            : Runtime.getRuntime().availableProcessors();
+            int pollers = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+            new Connect4LoadTest().run(args[0], games, rounds, threads, pollers);
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            System.out.println(e.getMessage());
+        }
+        System.exit(0);
+    }
+
+
+    /**
+     * Start a server, play the games against it and print the results
+     * @param mode the server mode
+     * @param games the number of games played at the same time
+     * @param rounds the number of times each game is played
+     * @param threads the number of event loops in nio mode
+     * @param pollers the number of clients polling the lobby
+     * @throws IOException if the server cannot be reached
+     */
+    public void run(String mode, int games, int rounds, int threads, int pollers)
+        throws IOException {
+        if (mode.equals("virtual")) {
+            Connect4Server.virtualThreads();
+        }
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(() -> {
+            try {
+                new Connect4Server(geometry).serve(mode, port, threads);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        latencies = new long[games * 2 * rounds * (geometry.getCells() / 2 + 1)];
+        seatings = new long[2 * games];
+        playing = 2 * games;
+        Selector selector = Selector.open();
+        long start = System.nanoTime();
+        for (int i = 0; i < pollers; i++) {
+            SocketChannel channel = connect(port);
+            channel.configureBlocking(false);
+            Client poller = new Client(channel, -1);
+            channel.register(selector, SelectionKey.OP_READ, poller);
+            poller.send("LIST");
+        }
+        for (int i = 0; i < 2 * games; i++) {
+            SocketChannel channel = connect(port);
+            channel.configureBlocking(false);
+            Client client = new Client(channel, rounds);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            client.send("DISPLAY player" + i);
+            if (selector.selectNow() > 0) {
+                readSelected(selector);
+            }
+        }
+        long connected = System.nanoTime();
+        System.out.printf("%d clients connected in %d ms, %.0f per second%n",
+                          2 * games, (connected - start) / 1000000,
+                          2e9 * games / (connected - start));
+
+        long progress = System.nanoTime();
+        while (playing > 0) {
+            if (selector.select(1000) > 0) {
+                progress = System.nanoTime();
+            } else if (System.nanoTime() - progress > STALL_NANOS) {
+                System.out.println("no progress, " + playing + " clients still playing");
+                break;
+            }
+            readSelected(selector);
+        }
+        double seconds = (System.nanoTime() - connected) / 1e9;
+        report(mode, seconds);
+        if (pollers > 0) {
+            System.out.printf("lobby: %d listings, %.0f per second%n",
+                              listings, listings / seconds);
+        }
+    }
+
+
+    /**
+     * Let the clients whose channels are ready read and answer the server
+     * @param selector the selector of the clients, after a select
+     */
+    private void readSelected(Selector selector) {
+        for (SelectionKey key : selector.selectedKeys()) {
+            ((Client) key.attachment()).read();
+        }
+        selector.selectedKeys().clear();
+    }
+
+
+    /**
+     * Connect to the server, retrying while it starts
+     * @param port the port of the server
+     * @return the connected channel
+     * @throws IOException if the server cannot be reached
+     */
+    private SocketChannel connect(int port) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return SocketChannel.open(new InetSocketAddress("localhost", port));
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Print the move latencies and the resources used by the process
+     * @param mode the server mode
+     * @param seconds the time spent playing
+     */
+    private void report(String mode, double seconds) {
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%s: %d moves in %.1f s, %.0f moves/s%n",
+                          mode, samples, seconds, samples / seconds);
+        printPercentiles("seated", seatings, seated);
+        printPercentiles("move round trip", latencies, samples);
+        System.out.printf("platform threads %d, heap after gc %d MB, resident %s%n",
+                          ManagementFactory.getThreadMXBean().getThreadCount(),
+                          heap >> 20, resident());
+    }
+
+
+    /**
+     * Print the median, 99th percentile and maximum of a set of times
+     * @param name the name of the times
+     * @param times the times, in nanoseconds
+     * @param count the number of times
+     */
+    private static void printPercentiles(String name, long[] times, int count) {
+        if (count == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(times, count);
+        Arrays.sort(sorted);
+        System.out.printf("%s: p50 %.0f us, p99 %.0f us, max %.0f us%n", name,
+                          sorted[count / 2] / 1e3,
+                          sorted[(int) (count * 0.99)] / 1e3,
+                          sorted[count - 1] / 1e3);
+    }
+
+
+    /**
+     * Read the resident memory of the process, where the system reports it
+     * @return the resident memory, or "unknown"
+     */
+    private static String resident() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring(6).trim();
+                }
+            }
+        } catch (IOException e) {}
+        return "unknown";
+    }
+
+
+    /**
+     * One simulated player, keeping its own copy of the board heights,
+     * or a lobby poller
+     */
+    private class Client {
+
+        private SocketChannel channel;
+        private ByteBuffer input = ByteBuffer.allocate(256);
+        private int[] heights = new int[geometry.getColumns()];
+        private int roundsLeft;
+        private char mark;
+        private char turn;
+        private boolean started;
+        private long connected = System.nanoTime();
+        private long sent;
+        private int unlisted = -1;
+
+
+        /**
+         * Constructor for the Client object
+         * @param channel the connected channel
+         * @param rounds the number of games to play, -1 for a poller
+         */
+        Client(SocketChannel channel, int rounds) {
+            this.channel = channel;
+            this.roundsLeft = rounds;
+        }
+
+
+        /**
+         * Read what the server sent and answer each complete line
+         */
+        void read() {
+            int read;
+            try {
+                read = channel.read(input);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                System.out.println("server closed a connection");
+                finish();
+                try {
+                    channel.close();
+                } catch (IOException e) {}
+                return;
+            }
+            byte[] bytes = input.array();
+            int length = input.position();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == '\n') {
+                    handle(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            System.arraycopy(bytes, start, bytes, 0, length - start);
+            input.position(length - start);
+        }
+
+
+        /**
+         * Answer one line of the server
+         * @param line the line
+         */
+        void handle(String line) {
+            if (line.startsWith("GAMES")) {
+                unlisted = Integer.parseInt(line.substring(6));
+            } else if (line.startsWith("GAME ")) {
+                unlisted--;
+            }
+            if (unlisted == 0) {
+                unlisted = -1;
+                listings++;
+                if (playing > 0) {
+                    send("LIST");
+                }
+                return;
+            }
+            if (line.startsWith("WELCOME")) {
+                mark = line.charAt(8);
+            } else if (line.startsWith("MESSAGE Players")) {
+                started = true;
+                seatings[seated++] = System.nanoTime() - connected;
+                if (turn == mark) {
+                    move();
+                }
+            } else if (line.startsWith("SET")) {
+                turn = line.charAt(4);
+                if (started && turn == mark) {
+                    move();
+                }
+            } else if (line.startsWith("VALID_MOVE")) {
+                latencies[samples++] = System.nanoTime() - sent;
+                heights[Integer.parseInt(line.split(" ")[1])]++;
+            } else if (line.startsWith("OPPONENT_MOVED")) {
+                heights[Integer.parseInt(line.split(" ")[1])]++;
+            } else if (line.equals("VICTORY") || line.equals("DEFEAT") || line.equals("DRAW")) {
+                if (--roundsLeft > 0) {
+                    send("REMATCH_PLS");
+                } else {
+                    finish();
+                }
+            } else if (line.startsWith("NEW_GAME")) {
+                Arrays.fill(heights, 0);
+                if (line.charAt(9) == mark) {
+                    move();
+                }
+            }
+        }
+
+
+        /**
+         * Play a random open column
+         */
+        void move() {
+            int[] open = new int[heights.length];
+            int count = 0;
+            for (int col = 0; col < heights.length; col++) {
+                if (heights[col] < geometry.getRows()) {
+                    open[count++] = col;
+                }
+            }
+            sent = System.nanoTime();
+            send("MOVE " + open[ThreadLocalRandom.current().nextInt(count)]);
+        }
+
+
+        /**
+         * Send one line to the server
+         * @param line the line
+         */
+        void send(String line) {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } catch (IOException e) {
+                finish();
+            }
+        }
+
+
+        /**
+         * Stop playing, leaving the connection open
+         */
+        void finish() {
+            if (roundsLeft >= 0) {
+                roundsLeft = -1;
+                playing--;
+            }
+        }
+    }
+
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Connect4BatchEvaluator.java
+ * scores many independent positions at a time, for bulk jobs that would
+ * otherwise make one call per position: it finds which players have a
+ * line, the playable cells and the Connect4Evaluator score of arrays of
+ * bitboards, in tight loops over the arrays.
+ *
+ * Positions are given as parallel arrays: the discs of the player to
+ * move and the occupied cells, as Connect4Logic.getCurrentMask and
+ * getOccupiedMask return them. The player to move is the first player
+ * when the number of discs is even.
+ *
+ * of() returns the SIMD implementation in vector/ when it was compiled
+ * and the jdk.incubator.vector module is present at run time, and this
+ * scalar implementation otherwise. Both give the same results.
+ */
+
+
+public class Connect4BatchEvaluator {
+
+    private static final String VECTOR_IMPLEMENTATION = "Connect4VectorBatchEvaluator";
+
+    protected final Connect4Geometry geometry;
+    protected final Connect4Evaluator evaluator;
+
+
+    /**
+     * Constructor for the Connect4BatchEvaluator object
+     * @param geometry the board size and win length of the positions
+     */
+    protected Connect4BatchEvaluator(Connect4Geometry geometry) {
+        this.geometry = geometry;
+        this.evaluator = Connect4Evaluator.of(geometry);
+    }
+
+
+    /**
+     * Get the fastest batch evaluator available for a geometry
+     * @param geometry the board size and win length of the positions
+     * @return the vector implementation if it can run, the scalar one
+     * otherwise
+     */
+    public static Connect4BatchEvaluator of(Connect4Geometry geometry) {
+        try {
+            return (Connect4BatchEvaluator) Class.forName(VECTOR_IMPLEMENTATION)
+                .getDeclaredConstructor(Connect4Geometry.class)
+                .newInstance(geometry);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalar(geometry);
+        }
+    }
+
+
+    /**
+     * Get the scalar batch evaluator for a geometry
+     * @param geometry the board size and win length of the positions
+     * @return the scalar implementation
+     */
+    public static Connect4BatchEvaluator scalar(Connect4Geometry geometry) {
+        return new Connect4BatchEvaluator(geometry);
+    }
+
+
+    /**
+     * Get the geometry the evaluator was built for
+     * @return the board size and win length
+     */
+    public Connect4Geometry getGeometry() {
+        return geometry;
+    }
+
+
+    /**
+     * Describe the implementation
+     * @return the name of the implementation
+     */
+    public String getImplementation() {
+        return "scalar";
+    }
+
+
+    /**
+     * Find which players have a line
+     * @param masks the discs of one player in each position
+     * @param count the number of positions
+     * @param wins set to true for every position whose player has a line
+     */
+    public void findWins(long[] masks, int count, boolean[] wins) {
+        findWins(masks, 0, count, wins);
+    }
+
+
+    /**
+     * Find the cells a disc can be placed in
+     * @param occupied the occupied cells of each position
+     * @param count the number of positions
+     * @param playable set to the lowest empty cell of every open column
+     * of each position
+     */
+    public void findPlayable(long[] occupied, int count, long[] playable) {
+        findPlayable(occupied, 0, count, playable);
+    }
+
+
+    /**
+     * Score positions with the Connect4Evaluator of the geometry
+     * @param current the discs of the player to move in each position
+     * @param occupied the occupied cells of each position
+     * @param count the number of positions
+     * @param scores set to the score of each position, from the point of
+     * view of the player to move
+     */
+    public void evaluate(long[] current, long[] occupied, int count, int[] scores) {
+        evaluate(current, occupied, 0, count, scores);
+    }
+
+
+    /**
+     * Find which players have a line in a range of positions
+     * @param masks the discs of one player in each position
+     * @param from the first position
+     * @param to the position after the last one
+     * @param wins set to true for every position whose player has a line
+     */
+    protected void findWins(long[] masks, int from, int to, boolean[] wins) {
+        for (int i = from; i < to; i++) {
+            wins[i] = (geometry.getWinningCells(masks[i]) & masks[i]) != 0;
+        }
+    }
+
+
+    /**
+     * Find the cells a disc can be placed in for a range of positions
+     * @param occupied the occupied cells of each position
+     * @param from the first position
+     * @param to the position after the last one
+     * @param playable set to the lowest empty cell of every open column
+     */
+    protected void findPlayable(long[] occupied, int from, int to, long[] playable) {
+        long bottom = geometry.getBottomMask();
+        long board = geometry.getBoardMask();
+        for (int i = from; i < to; i++) {
+            playable[i] = (occupied[i] + bottom) & board;
+        }
+    }
+
+
+    /**
+     * Score a range of positions
+     * @param current the discs of the player to move in each position
+     * @param occupied the occupied cells of each position
+     * @param from the first position
+     * @param to the position after the last one
+     * @param scores set to the score of each position
+     */
+    protected void evaluate(long[] current, long[] occupied, int from, int to, int[] scores) {
+        for (int i = from; i < to; i++) {
+            scores[i] = evaluator.evaluate(current[i], occupied[i] ^ current[i], occupied[i],
+                                           (Long.bitCount(occupied[i]) & 1) == 0);
+        }
+    }
+
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Connect4BookGenerator.java
+ * offline tool that solves every position up to a number of plies
+ * and writes the exact scores as an opening book. A position and its
+ * mirror image have the same score, so only one of them is solved
+ * and stored. Only the deepest positions are searched; the others are
+ * scored from their moves.
+ *
+ * usage:
+ * java Connect4BookGenerator <plies> <file>
+ * java Connect4BookGenerator <plies> <file> <table MB>
+ * java Connect4BookGenerator <plies> <file> <table MB> <rows> <columns> <win>
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class Connect4BookGenerator {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private Connect4Solver solver;
+    private Connect4Geometry geometry;
+    private int plies;
+    private Map<Long, Integer> scores;
+
+
+    /**
+     * Constructor for the Connect4BookGenerator object
+     * @param geometry the board size and win length of the book
+     * @param plies the deepest positions to store, in discs on the board
+     * @param solver the solver used to score the positions
+     */
+    public Connect4BookGenerator(Connect4Geometry geometry, int plies,
+                                 Connect4Solver solver) {
+        this.geometry = geometry;
+        this.plies = plies;
+        this.solver = solver;
+        this.scores = new HashMap<Long, Integer>();
+    }
+
+
+    /**
+     * Main function of the book generator
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("usage: java Connect4BookGenerator <plies> <file> "
+                               + "[table MB [rows columns win]]");
+            return;
+        }
+        try {
+            int plies = Integer.parseInt(args[0]);
+            long tableBytes = (args.length > 2) ? Long.parseLong(args[2]) << 20
+                                                : Connect4Solver.DEFAULT_TABLE_BYTES;
+            Connect4Geometry geometry = (args.length > 5)
+                ? Connect4Geometry.of(Integer.parseInt(args[3]),
+                                      Integer.parseInt(args[4]),
+                                      Integer.parseInt(args[5]))
+                : Connect4Geometry.STANDARD;
+            Connect4BookGenerator generator = new Connect4BookGenerator(
+                geometry, plies,
+                new Connect4Solver(new Connect4TranspositionTable(tableBytes)));
+            long start = System.nanoTime();
+            generator.generate(new Connect4Logic(geometry));
+            generator.write(Paths.get(args[1]));
+            System.out.println("Wrote " + generator.scores.size() + " positions in "
+                               + (System.nanoTime() - start) / 1000000000L + " s");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Score a position and every position reachable from it up to the
+     * ply limit. Only the positions at the limit are searched; the score
+     * of a shallower position follows from the scores of its moves, so
+     * the solver never has to search the large trees of the first plies.
+     * @param game the position to start from, with currentMove to play,
+     * on the geometry of the book
+     * @return the score of the position
+     */
+    public int generate(Connect4Logic game) {
+        long code = game.getCanonicalPositionCode();
+        Integer known = scores.get(code);
+        if (known != null) {
+            return known;
+        }
+        int score;
+        int moves = game.getMoveCount();
+        if (moves >= plies || game.isDraw()) {
+            score = solver.solve(game).getScore();
+        } else {
+            score = Integer.MIN_VALUE;
+            for (int col = 0; col < game.getColumns(); col++) {
+                if (game.verifyMove(col)) {
+                    game.makeMove(col);
+                    if (game.isWin()) {
+                        score = Math.max(score, (geometry.getCells() + 1 - moves) / 2);
+                    } else {
+                        game.switchTurns();
+                        score = Math.max(score, -generate(game));
+                        game.switchTurns();
+                    }
+                    game.undoMove();
+                }
+            }
+        }
+        scores.put(code, score);
+        if (scores.size() % PROGRESS_INTERVAL == 0) {
+            System.out.println(scores.size() + " positions solved");
+        }
+        return score;
+    }
+
+
+    /**
+     * Write the solved positions as an opening book
+     * @param path the location of the book file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        long[] codes = new long[scores.size()];
+        int i = 0;
+        for (long code : scores.keySet()) {
+            codes[i++] = code ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(codes);
+
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(Connect4OpeningBook.MAGIC);
+            buffer.putInt(geometry.getRows());
+            buffer.putInt(geometry.getColumns());
+            buffer.putInt(geometry.getWin());
+            buffer.putInt(plies);
+            buffer.putInt(codes.length);
+            for (long sorted : codes) {
+                if (buffer.remaining() < Connect4OpeningBook.RECORD_BYTES) {
+                    drain(channel, buffer);
+                }
+                long code = sorted ^ Long.MIN_VALUE;
+                buffer.putLong(code);
+                buffer.put((byte) (int) scores.get(code));
+            }
+            drain(channel, buffer);
+        }
+    }
+
+
+    /**
+     * Write the contents of a buffer to a channel and empty the buffer
+     * @param channel the channel to write to
+     * @param buffer the buffer to drain
+     * @throws IOException if the channel cannot be written
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Connect4Connection.java
+ * one client of the server, as the game sees it: lines of the Connect4
+ * protocol go out through send, and lines coming in are handed to a
+ * listener. The server decides how the bytes move, with a thread blocked
+ * on each socket (Connect4SocketConnection) or with a few threads
+ * multiplexing many sockets (Connect4NioServer).
+ *
+ * send may be called from any thread and never blocks: a client that
+ * stops reading holds up nothing but its own connection. A listener is
+ * called from one thread at a time, in the order the lines arrived, and
+ * is told once when the connection ends for any reason but a call to
+ * close: the client leaving, the connection being reset, or a read or
+ * write failing.
+ */
+
+
+public interface Connect4Connection {
+
+
+    /**
+     * Start handing the lines of the client to a listener
+     * @param listener the listener of the connection
+     */
+    void open(Listener listener);
+
+
+    /**
+     * Send one line to the client without blocking. Lines sent after the
+     * connection is closed are dropped.
+     * @param line the line, without its line terminator
+     */
+    void send(String line);
+
+
+    /**
+     * Close the connection. The listener is not told, and gets no more
+     * lines.
+     */
+    void close();
+
+
+    /**
+     * Receives the lines of a connection
+     */
+    interface Listener {
+
+
+        /**
+         * Handle one line from the client
+         * @param line the line, without its line terminator
+         */
+        void received(String line);
+
+
+        /**
+         * Handle the connection ending without a call to close
+         */
+        void disconnected();
+    }
+
+
+}
@@ -12,8 +12,8 @@ public abstract class Connect4Controller {
 
     protected static final char RED = 'r';
     protected static final char YELLOW = 'y';
-    protected static final int ROWS = 6;
-    protected static final int COLUMNS = 7;
+    protected int rows = Connect4Geometry.STANDARD.getRows();
+    protected int columns = Connect4Geometry.STANDARD.getColumns();
 
     public abstract void handleUserMove(int column);
     public abstract void resetGame();
@@ -35,7 +35,7 @@ public abstract class Connect4Controller {
      * @return the number of rows in the game
      */
     public int getRows() {
-        return ROWS;
+        return rows;
     }
 
 
@@ -44,7 +44,18 @@ public abstract class Connect4Controller {
      * @return the number of columns in the game
      */
     public int getColumns() {
-        return COLUMNS;
+        return columns;
+    }
+
+
+    /**
+     * Set the size of the game board shown by the view
+     * @param rows the number of rows in the game
+     * @param columns the number of columns in the game
+     */
+    protected void setBoardSize(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
     }
 
 
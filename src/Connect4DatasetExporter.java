@@ -0,0 +1,304 @@
+/**
+ * Connect4DatasetExporter.java
+ * offline tool that turns a file of game records, as read by
+ * Connect4Notation, into labeled positions for training evaluations.
+ * Every position of every game with at least a minimum number of discs
+ * is solved, and written with its exact score and best move. A position
+ * met again in a later game, or as the mirror image of an earlier one,
+ * is written once, as long as the set of positions seen still holds it:
+ * the set has a fixed size, and once it is full older positions make
+ * room for new ones, so memory stays bounded however many games are read.
+ *
+ * The output is fixed-width binary, written through a buffered file
+ * channel and optionally split into shards of a maximum size.
+ *
+ * File layout of each shard, big-endian:
+ *   int    magic "C4DS"
+ *   int    rows
+ *   int    columns
+ *   int    win length
+ *   int    bytes per sample
+ * followed by samples of:
+ *   long   discs of the player to move
+ *   long   occupied cells
+ *   byte   number of discs
+ *   byte   0 if the player to move moved first, 1 otherwise
+ *   byte   score, as returned by Connect4Solver
+ *   byte   best column
+ *
+ * usage:
+ * java Connect4DatasetExporter <records> <output>
+ * java Connect4DatasetExporter <records> <output> <min discs>
+ * java Connect4DatasetExporter <records> <output> <min discs> <shard MB> <set MB>
+ *      [rows columns win]
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+public class Connect4DatasetExporter {
+
+    public static final int MAGIC = 0x43344453;
+    public static final int HEADER_BYTES = 5 * Integer.BYTES;
+    public static final int SAMPLE_BYTES = 2 * Long.BYTES + 4;
+
+    private static final int DEFAULT_MIN_DISCS = 16;
+    private static final long DEFAULT_SET_BYTES = 64L << 20;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int PROBES = 8;
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    private Connect4Geometry geometry;
+    private Connect4Solver solver;
+    private int minDiscs;
+    private long shardBytes;
+    private String output;
+    private long[] seen;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private int files;
+    private long written;
+    private long samples;
+    private long duplicates;
+    private long invalid;
+
+
+    /**
+     * Constructor for the Connect4DatasetExporter object
+     * @param geometry the board size and win length of the games
+     * @param solver the solver used to label the positions
+     * @param minDiscs the fewest discs a position needs to be written
+     * @param shardBytes the largest size of an output file, 0 to write
+     * a single file
+     * @param setBytes the memory used to recognize positions already
+     * written
+     * @param output the output file, or the prefix of the shard files
+     */
+    public Connect4DatasetExporter(Connect4Geometry geometry, Connect4Solver solver,
+                                   int minDiscs, long shardBytes, long setBytes,
+                                   String output) {
+        if (shardBytes != 0 && shardBytes < HEADER_BYTES + SAMPLE_BYTES) {
+            throw new IllegalArgumentException("Shards too small: " + shardBytes);
+        }
+        this.geometry = geometry;
+        this.solver = solver;
+        this.minDiscs = Math.max(minDiscs, 0);
+        this.shardBytes = shardBytes;
+        this.output = output;
+        this.seen = new long[Integer.highestOneBit(
+            (int) Math.min(Math.max(setBytes / Long.BYTES, PROBES), 1 << 30))];
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    }
+
+
+    /**
+     * Main function of the dataset exporter
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("usage: java Connect4DatasetExporter <records> <output> "
+                               + "[min discs [shard MB [set MB [rows columns win]]]]");
+            return;
+        }
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            int minDiscs = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MIN_DISCS;
+            long shardBytes = (args.length > 3) ? Long.parseLong(args[3]) << 20 : 0L;
+            long setBytes = (args.length > 4) ? Long.parseLong(args[4]) << 20
+                                              : DEFAULT_SET_BYTES;
+            Connect4Geometry geometry = (args.length > 7)
+                ? Connect4Geometry.of(Integer.parseInt(args[5]),
+                                      Integer.parseInt(args[6]),
+                                      Integer.parseInt(args[7]))
+                : Connect4Geometry.STANDARD;
+            Connect4DatasetExporter exporter = new Connect4DatasetExporter(
+                geometry, new Connect4Solver(), minDiscs, shardBytes, setBytes, args[1]);
+            long start = System.nanoTime();
+            long records = exporter.export(in);
+            System.out.println(records + " records, " + exporter.invalid + " invalid, "
+                               + exporter.samples + " samples, " + exporter.duplicates
+                               + " duplicates, " + exporter.files + " files in "
+                               + (System.nanoTime() - start) / 1000000000L + " s");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Read every record of a stream and write the samples of its games
+     * @param in the stream of records, one game per line
+     * @return the number of records read
+     * @throws IOException if the stream cannot be read or the output
+     * cannot be written
+     */
+    public long export(InputStream in) throws IOException {
+        Connect4Notation notation = new Connect4Notation(geometry);
+        long records;
+        try {
+            records = notation.readRecords(in, (index, n) -> {
+                if (n.getError() != Connect4Notation.VALID) {
+                    invalid++;
+                } else {
+                    try {
+                        exportGame(n.getGame());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            close();
+        }
+        return records;
+    }
+
+
+    /**
+     * Write the samples of one game, walking it back from its last
+     * position. The game is left at the first position written.
+     * @param game a game replayed from a valid record
+     * @throws IOException if the output cannot be written
+     */
+    private void exportGame(Connect4Logic game) throws IOException {
+        if (game.isWin() || game.isDraw()) {
+            game.undoMove();
+        }
+        while (game.getMoveCount() >= minDiscs) {
+            if (add(game.getCanonicalPositionCode())) {
+                writeSample(game);
+            } else {
+                duplicates++;
+            }
+            if (game.getMoveCount() == 0) {
+                return;
+            }
+            game.switchTurns();
+            game.undoMove();
+        }
+    }
+
+
+    /**
+     * Add a position to the set of positions written. A position is
+     * looked for in a few slots after its hash; when all of them hold
+     * other positions, the first is replaced.
+     * @param code the canonical code of the position, never 0
+     * @return true if the position was not in the set, false otherwise
+     */
+    private boolean add(long code) {
+        int mask = seen.length - 1;
+        int first = (int) Connect4Tablebase.hash(code, 0) & mask;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (first + i) & mask;
+            if (seen[slot] == code) {
+                return false;
+            }
+            if (seen[slot] == 0) {
+                seen[slot] = code;
+                return true;
+            }
+        }
+        seen[first] = code;
+        return true;
+    }
+
+
+    /**
+     * Solve a position and write it as a sample
+     * @param game the position, with currentMove to play; the game
+     * must not be over
+     * @throws IOException if the output cannot be written
+     */
+    private void writeSample(Connect4Logic game) throws IOException {
+        int[] scores = solver.analyze(game);
+        int best = -1;
+        for (int col : Connect4Solver.centerFirstOrder(game.getColumns())) {
+            if (scores[col] != Integer.MIN_VALUE && (best < 0 || scores[col] > scores[best])) {
+                best = col;
+            }
+        }
+        if (channel == null || (shardBytes != 0 && written + SAMPLE_BYTES > shardBytes)) {
+            openShard();
+        }
+        if (buffer.remaining() < SAMPLE_BYTES) {
+            drain();
+        }
+        buffer.putLong(game.getCurrentMask());
+        buffer.putLong(game.getOccupiedMask());
+        buffer.put((byte) game.getMoveCount());
+        buffer.put((byte) (game.getMoveCount() & 1));
+        buffer.put((byte) scores[best]);
+        buffer.put((byte) best);
+        written += SAMPLE_BYTES;
+        if (++samples % PROGRESS_INTERVAL == 0) {
+            System.out.println(samples + " samples written");
+        }
+    }
+
+
+    /**
+     * Close the current output file, if any, and start the next one
+     * with its header
+     * @throws IOException if a file cannot be written
+     */
+    private void openShard() throws IOException {
+        close();
+        Path path = (shardBytes != 0) ? Paths.get(String.format("%s.%05d", output, files))
+                                      : Paths.get(output);
+        channel = FileChannel.open(path,
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(geometry.getRows());
+        buffer.putInt(geometry.getColumns());
+        buffer.putInt(geometry.getWin());
+        buffer.putInt(SAMPLE_BYTES);
+        written = HEADER_BYTES;
+        files++;
+    }
+
+
+    /**
+     * Write the buffered samples and close the current output file
+     * @throws IOException if the file cannot be written
+     */
+    private void close() throws IOException {
+        if (channel != null) {
+            try {
+                drain();
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+
+    /**
+     * Write the contents of the buffer to the current output file and
+     * empty the buffer
+     * @throws IOException if the file cannot be written
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+}
@@ -0,0 +1,262 @@
+/**
+ * Connect4Evaluator.java
+ * static evaluation of a position for depth-limited searches, built on
+ * every line of win-length cells the board holds. The lines are
+ * precomputed once per geometry as the cells they start from, one
+ * bitboard per direction, so a position is scored with a few shifts
+ * and bit counts per direction and no loop over the cells.
+ *
+ * The score compares, for the player to move and the opponent:
+ *   open threes   lines missing one disc with the last cell empty
+ *   open twos     lines missing two discs with both cells empty
+ *   parity        empty cells completing a line on the rows the player
+ *                 is the one to fill: odd rows, counted from the bottom,
+ *                 for the player who moved first, even rows for the other
+ *   center        discs weighted by the number of lines through their cell
+ * The weights keep every score far below Connect4SearchPlayer.WIN_SCORE.
+ *
+ * Evaluators hold no state besides their tables and are shared: of()
+ * returns the same object for the same geometry. Connect four gets its
+ * own subclass with the line count unrolled.
+ */
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+public class Connect4Evaluator {
+
+    private static final ConcurrentMap<Connect4Geometry, Connect4Evaluator> EVALUATORS =
+        new ConcurrentHashMap<Connect4Geometry, Connect4Evaluator>();
+
+    protected static final int THREE_WEIGHT = 16;
+    protected static final int TWO_WEIGHT = 4;
+    private static final int PARITY_WEIGHT = 32;
+    private static final int CENTER_WEIGHT = 1;
+
+    protected final Connect4Geometry geometry;
+    protected final int win;
+    private int[] shifts;
+    private long[] lineStarts;
+    private long[] weightBits;
+    private long oddRows;
+
+
+    /**
+     * Constructor for the Connect4Evaluator object
+     * @param geometry the board size and win length of the positions
+     */
+    protected Connect4Evaluator(Connect4Geometry geometry) {
+        this.geometry = geometry;
+        this.win = geometry.getWin();
+        int height = geometry.getHeight();
+        long board = geometry.getBoardMask();
+        this.shifts = new int[] {1, height, height - 1, height + 1};
+        this.lineStarts = new long[shifts.length];
+        int[] weights = new int[Long.SIZE];
+        int maxWeight = 0;
+        for (int d = 0; d < shifts.length; d++) {
+            long starts = board;
+            for (int i = 1; i < win && starts != 0; i++) {
+                long distance = (long) i * shifts[d];
+                starts &= (distance < Long.SIZE) ? board >>> distance : 0L;
+            }
+            lineStarts[d] = starts;
+            for (long rest = starts; rest != 0; rest &= rest - 1) {
+                int start = Long.numberOfTrailingZeros(rest);
+                for (int i = 0; i < win; i++) {
+                    int cell = start + i * shifts[d];
+                    weights[cell]++;
+                    maxWeight = Math.max(maxWeight, weights[cell]);
+                }
+            }
+        }
+        this.weightBits = new long[32 - Integer.numberOfLeadingZeros(maxWeight)];
+        for (int cell = 0; cell < Long.SIZE; cell++) {
+            for (int k = 0; k < weightBits.length; k++) {
+                if ((weights[cell] & (1 << k)) != 0) {
+                    weightBits[k] |= 1L << cell;
+                }
+            }
+        }
+        long odd = 0L;
+        for (int row = 0; row < geometry.getRows(); row += 2) {
+            odd |= geometry.getBottomMask() << row;
+        }
+        this.oddRows = odd;
+    }
+
+
+    /**
+     * Get the evaluator for a geometry
+     * @param geometry the board size and win length of the positions
+     * @return the shared evaluator
+     */
+    public static Connect4Evaluator of(Connect4Geometry geometry) {
+        return EVALUATORS.computeIfAbsent(geometry,
+            g -> (g.getWin() == 4) ? new FourInARow(g) : new Connect4Evaluator(g));
+    }
+
+
+    /**
+     * Get the geometry the evaluator was built for
+     * @return the board size and win length
+     */
+    public Connect4Geometry getGeometry() {
+        return geometry;
+    }
+
+
+    /**
+     * Estimate a position
+     * @param game the position, with currentMove to play, on the
+     * geometry of the evaluator
+     * @return the estimate, positive when the player to move is better off
+     */
+    public int evaluate(Connect4Logic game) {
+        long occupied = game.getOccupiedMask();
+        long current = game.getCurrentMask();
+        return evaluate(current, occupied ^ current, occupied,
+                        (game.getMoveCount() & 1) == 0);
+    }
+
+
+    /**
+     * Estimate a position given as bitboards
+     * @param current the discs of the player to move
+     * @param opponent the discs of the other player
+     * @param occupied the occupied cells
+     * @param first true if the player to move moved first in the game
+     * @return the estimate, positive when the player to move is better off
+     */
+    public int evaluate(long current, long opponent, long occupied, boolean first) {
+        long empty = geometry.getBoardMask() & ~occupied;
+        long currentRows = first ? oddRows : ~oddRows;
+        int parity = Long.bitCount(geometry.getWinningCells(current) & empty & currentRows)
+                     - Long.bitCount(geometry.getWinningCells(opponent) & empty & ~currentRows);
+        int center = 0;
+        for (int k = 0; k < weightBits.length; k++) {
+            center += (Long.bitCount(current & weightBits[k])
+                       - Long.bitCount(opponent & weightBits[k])) << k;
+        }
+        return scoreLines(current, opponent, empty)
+               + PARITY_WEIGHT * parity
+               + CENTER_WEIGHT * center;
+    }
+
+
+    /**
+     * Score the difference between the open threes and twos of the players
+     * @param current the discs of the player to move
+     * @param opponent the discs of the other player
+     * @param empty the empty cells of the board
+     * @return the weighted difference between the open lines
+     */
+    private int scoreLines(long current, long opponent, long empty) {
+        int score = 0;
+        for (int d = 0; d < shifts.length; d++) {
+            if (lineStarts[d] != 0) {
+                score += scoreLines(current, opponent, empty, lineStarts[d], shifts[d]);
+            }
+        }
+        return score;
+    }
+
+
+    /**
+     * Score the difference between the open threes and twos of the
+     * players along one direction. The cells of each line are brought
+     * onto its start cell one offset at a time, counting its empty cells
+     * up to three and dropping the lines either player is blocked in.
+     * @param current the discs of the player to move
+     * @param opponent the discs of the other player
+     * @param empty the empty cells of the board
+     * @param starts the first cell of every line along the direction
+     * @param shift the distance between two neighbouring cells of the line
+     * @return the weighted difference between the open lines
+     */
+    protected int scoreLines(long current, long opponent, long empty,
+                             long starts, int shift) {
+        long currentFree = current | empty;
+        long opponentFree = opponent | empty;
+        long currentOpen = starts;
+        long opponentOpen = starts;
+        long one = 0L;
+        long two = 0L;
+        long three = 0L;
+        for (int distance = 0; distance < win * shift; distance += shift) {
+            long cells = empty >>> distance;
+            currentOpen &= currentFree >>> distance;
+            opponentOpen &= opponentFree >>> distance;
+            three |= two & cells;
+            two |= one & cells;
+            one |= cells;
+        }
+        long missingOne = one & ~two;
+        long missingTwo = two & ~three;
+        int threes = Long.bitCount(currentOpen & missingOne)
+                     - Long.bitCount(opponentOpen & missingOne);
+        int twos = Long.bitCount(currentOpen & missingTwo)
+                   - Long.bitCount(opponentOpen & missingTwo);
+        return THREE_WEIGHT * threes + ((win > 2) ? TWO_WEIGHT * twos : 0);
+    }
+
+
+    /**
+     * Connect four, with the line count unrolled
+     */
+    private static class FourInARow extends Connect4Evaluator {
+
+
+        /**
+         * Constructor for the FourInARow object
+         * @param geometry the board size of the positions
+         */
+        public FourInARow(Connect4Geometry geometry) {
+            super(geometry);
+        }
+
+
+        /**
+         * Score the difference between the open threes and twos of the
+         * players along one direction. A line misses one disc when an
+         * odd number of its cells are empty and no pair of them is, and
+         * two discs when exactly one of its pairs is empty or each pair
+         * has one empty cell.
+         * @param current the discs of the player to move
+         * @param opponent the discs of the other player
+         * @param empty the empty cells of the board
+         * @param starts the first cell of every line along the direction
+         * @param shift the distance between two neighbouring cells of the line
+         * @return the weighted difference between the open lines
+         */
+        @Override
+        protected int scoreLines(long current, long opponent, long empty,
+                                 long starts, int shift) {
+            long currentFree = current | empty;
+            long opponentFree = opponent | empty;
+            long currentOpen = starts & currentFree & (currentFree >>> shift)
+                               & (currentFree >>> (2 * shift)) & (currentFree >>> (3 * shift));
+            long opponentOpen = starts & opponentFree & (opponentFree >>> shift)
+                                & (opponentFree >>> (2 * shift)) & (opponentFree >>> (3 * shift));
+            long second = empty >>> shift;
+            long third = empty >>> (2 * shift);
+            long fourth = empty >>> (3 * shift);
+            long lowEither = empty ^ second;
+            long lowBoth = empty & second;
+            long highEither = third ^ fourth;
+            long highBoth = third & fourth;
+            long missingOne = (lowEither ^ highEither) & ~(lowBoth | highBoth);
+            long missingTwo = ((lowBoth ^ highBoth) & ~(lowEither | highEither))
+                              | (lowEither & highEither);
+            int threes = Long.bitCount(currentOpen & missingOne)
+                         - Long.bitCount(opponentOpen & missingOne);
+            int twos = Long.bitCount(currentOpen & missingTwo)
+                       - Long.bitCount(opponentOpen & missingTwo);
+            return THREE_WEIGHT * threes + TWO_WEIGHT * twos;
+        }
+    }
+
+
+}
@@ -86,6 +86,8 @@ public class Connect4GUI extends Application {
      * Creates the game user interface
      */
     public void createGameUI() {
+        columnSize = controller.getColumns();
+        rowSize = controller.getRows();
         initializeGridElements();
         setupMoveIndicator();
         setupGrid();
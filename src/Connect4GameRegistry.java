@@ -0,0 +1,232 @@
+/**
+ * Connect4GameRegistry.java
+ * the games of the server, for the lobby: every game gets an id when it
+ * is opened, and its state and player names are kept up to date by the
+ * game itself until it ends.
+ *
+ * Games are kept in a concurrent map. The lobby listing is built from it
+ * only when a client asks for it after something changed, and is kept as
+ * one immutable string until the next change, so any number of clients
+ * can poll the lobby without locking, and a game changing its state only
+ * counts a change.
+ *
+ * A listing is sent as:
+ *   GAMES <count>
+ * followed by one line per game, in order of id:
+ *   GAME <id> <state> <rows> <columns> <win> <red name> <yellow name>
+ * where a player not known yet is named "-".
+ */
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class Connect4GameRegistry {
+
+    public static final int OPEN = 0;
+    public static final int PLAYING = 1;
+    public static final int OVER = 2;
+
+    private static final String[] STATES = {"OPEN", "PLAYING", "OVER"};
+    private static final String NO_NAME = "-";
+    private static final char RED = 'r';
+
+    private ConcurrentMap<Long, Entry> games = new ConcurrentSkipListMap<>();
+    private AtomicLong ids = new AtomicLong();
+    private AtomicLong changes = new AtomicLong();
+    private AtomicReference<Listing> listing =
+        new AtomicReference<>(new Listing(0, "GAMES 0"));
+
+
+    /**
+     * Open a new game, waiting for its second player
+     * @param geometry the board of the game
+     * @param host the name of the player waiting, or null
+     * @return the entry of the game
+     */
+    public Entry open(Connect4Geometry geometry, String host) {
+        Entry entry = new Entry(ids.incrementAndGet(), geometry, host);
+        games.put(entry.id, entry);
+        changes.incrementAndGet();
+        return entry;
+    }
+
+
+    /**
+     * Get a game
+     * @param id the id of the game
+     * @return the entry of the game, null if there is no such game
+     */
+    public Entry get(long id) {
+        return games.get(id);
+    }
+
+
+    /**
+     * Get the number of games
+     * @return the number of games open, playing or over but not left
+     */
+    public int size() {
+        return games.size();
+    }
+
+
+    /**
+     * Get the lobby listing, rebuilding it if a game changed since it
+     * was last built. Never blocks: callers asking at the same time may
+     * each rebuild it, and the most recent one built is kept.
+     * @return the listing, lines separated by \n
+     */
+    public String list() {
+        Listing last = listing.get();
+        long version = changes.get();
+        if (last.version == version) {
+            return last.text;
+        }
+        StringBuilder out = new StringBuilder();
+        int count = 0;
+        for (Entry entry : games.values()) {
+            out.append("\nGAME ").append(entry.id)
+               .append(' ').append(STATES[entry.state])
+               .append(' ').append(entry.geometry.getRows())
+               .append(' ').append(entry.geometry.getColumns())
+               .append(' ').append(entry.geometry.getWin())
+               .append(' ').append(entry.red)
+               .append(' ').append(entry.yellow);
+            count++;
+        }
+        Listing built = new Listing(version, "GAMES " + count + out);
+        while (last.version < version && !listing.compareAndSet(last, built)) {
+            last = listing.get();
+        }
+        return built.text;
+    }
+
+
+    /**
+     * Make a name fit in one field of a listing
+     * @param name the name given by a player, or null
+     * @return the name without whitespace, "-" if there is none
+     */
+    private static String field(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return NO_NAME;
+        }
+        return name.trim().replaceAll("\\s+", "_");
+    }
+
+
+    /**
+     * A listing and the number of changes it includes
+     */
+    private static class Listing {
+
+        private long version;
+        private String text;
+
+
+        /**
+         * Constructor for the Listing object
+         * @param version the number of changes made before it was built
+         * @param text the listing
+         */
+        Listing(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+
+    /**
+     * One game of the registry
+     */
+    public class Entry {
+
+        private long id;
+        private Connect4Geometry geometry;
+        private volatile int state;
+        private volatile String red;
+        private volatile String yellow;
+
+
+        /**
+         * Constructor for the Entry object, of an open game
+         * @param id the id of the game
+         * @param geometry the board of the game
+         * @param host the name of the player waiting, or null
+         */
+        Entry(long id, Connect4Geometry geometry, String host) {
+            this.id = id;
+            this.geometry = geometry;
+            this.state = OPEN;
+            this.red = field(host);
+            this.yellow = NO_NAME;
+        }
+
+
+        /**
+         * Get the id of the game
+         * @return the id
+         */
+        public long getId() {
+            return id;
+        }
+
+
+        /**
+         * Get the board of the game
+         * @return the geometry
+         */
+        public Connect4Geometry getGeometry() {
+            return geometry;
+        }
+
+
+        /**
+         * Get the state of the game
+         * @return OPEN, PLAYING or OVER
+         */
+        public int getState() {
+            return state;
+        }
+
+
+        /**
+         * Set the state of the game
+         * @param state OPEN, PLAYING or OVER
+         */
+        public void setState(int state) {
+            this.state = state;
+            changes.incrementAndGet();
+        }
+
+
+        /**
+         * Set the name of a player
+         * @param mark the mark of the player
+         * @param name the name given by the player
+         */
+        public void setName(char mark, String name) {
+            if (mark == RED) {
+                red = field(name);
+            } else {
+                yellow = field(name);
+            }
+            changes.incrementAndGet();
+        }
+
+
+        /**
+         * Take the game off the registry, once a player left it
+         */
+        public void remove() {
+            if (games.remove(id, this)) {
+                changes.incrementAndGet();
+            }
+        }
+    }
+
+
+}
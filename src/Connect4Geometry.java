@@ -0,0 +1,347 @@
+/**
+ * Connect4Geometry.java
+ * board size and win length of a game, with the bitboard masks
+ * precomputed for them.
+ *
+ * Boards are stored column by column with rows + 1 bits per column,
+ * bit 0 being the bottom cell, so the spare top bit of each column keeps
+ * line shifts from wrapping into the next column. A board therefore fits
+ * in a long when (rows + 1) * columns is at most 64. Rows are also capped
+ * at MAX_ROWS so that every line shift stays well below 64 bits.
+ *
+ * Geometries are shared: of() returns the same object for the same
+ * parameters. Connect four gets its own subclass with the line tests
+ * unrolled, so other geometries cost the standard game nothing.
+ */
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+public class Connect4Geometry {
+
+    private static final ConcurrentMap<Integer, Connect4Geometry> GEOMETRIES =
+        new ConcurrentHashMap<Integer, Connect4Geometry>();
+
+    public static final int MAX_ROWS = 16;
+    public static final Connect4Geometry STANDARD = of(6, 7, 4);
+
+    protected final int rows;
+    protected final int columns;
+    protected final int win;
+    protected final int height;
+    protected final long bottomMask;
+    protected final long topMask;
+    protected final long boardMask;
+
+
+    /**
+     * Constructor for the Connect4Geometry object
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param win the number of discs in a row needed to win
+     */
+    protected Connect4Geometry(int rows, int columns, int win) {
+        this.rows = rows;
+        this.columns = columns;
+        this.win = win;
+        this.height = rows + 1;
+        long bottom = 0L;
+        for (int i = 0; i < columns; i++) {
+            bottom |= 1L << (i * height);
+        }
+        this.bottomMask = bottom;
+        this.topMask = bottom << (rows - 1);
+        this.boardMask = bottom * ((1L << rows) - 1);
+    }
+
+
+    /**
+     * Get the geometry for a board size and win length
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param win the number of discs in a row needed to win
+     * @return the shared geometry object
+     * @throws IllegalArgumentException if the board does not fit in a
+     * bitboard or the win length cannot fit on the board
+     */
+    public static Connect4Geometry of(int rows, int columns, int win) {
+        if (rows < 1 || rows > MAX_ROWS
+            || columns < 1 || (rows + 1) * columns > Long.SIZE) {
+            throw new IllegalArgumentException("Unsupported board size: "
+                                               + rows + "x" + columns);
+        }
+        if (win < 2 || win > Math.max(rows, columns)) {
+            throw new IllegalArgumentException("Unsupported win length: " + win);
+        }
+        return GEOMETRIES.computeIfAbsent((rows << 16) | (columns << 8) | win,
+            k -> (win == 4) ? new FourInARow(rows, columns)
+                            : new Connect4Geometry(rows, columns, win));
+    }
+
+
+    /**
+     * Get the number of rows
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+
+    /**
+     * Get the number of columns
+     * @return the number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+
+    /**
+     * Get the number of discs in a row needed to win
+     * @return the win length
+     */
+    public int getWin() {
+        return win;
+    }
+
+
+    /**
+     * Get the number of bits used by each column
+     * @return rows + 1
+     */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+     * Get the number of cells on the game board
+     * @return rows * columns
+     */
+    public int getCells() {
+        return rows * columns;
+    }
+
+
+    /**
+     * Get the mask of the bottom cell of every column
+     * @return the bottom row bitboard
+     */
+    public long getBottomMask() {
+        return bottomMask;
+    }
+
+
+    /**
+     * Get the mask of the top cell of every column
+     * @return the top row bitboard
+     */
+    public long getTopMask() {
+        return topMask;
+    }
+
+
+    /**
+     * Get the mask of every cell of the game board
+     * @return the full board bitboard
+     */
+    public long getBoardMask() {
+        return boardMask;
+    }
+
+
+    /**
+     * Get the cells of a column
+     * @param col the column position
+     * @return the bitboard of every cell in the column
+     */
+    public long getColumnMask(int col) {
+        return ((1L << rows) - 1) << (col * height);
+    }
+
+
+    /**
+     * Check if a disc is part of a winning line in any direction
+     * @param mask the discs of one player
+     * @param move the bit of the disc to check
+     * @return true if the disc is part of a winning line, false otherwise
+     */
+    public boolean isLineThrough(long mask, long move) {
+        return countLine(mask, move, 1) >= win
+               ||
+               countLine(mask, move, height) >= win
+               ||
+               countLine(mask, move, height - 1) >= win
+               ||
+               countLine(mask, move, height + 1) >= win;
+    }
+
+
+    /**
+     * Count the discs of a line going through a disc in one direction
+     * @param mask the discs of one player
+     * @param move the bit of the disc the line goes through
+     * @param shift the distance between two neighbouring cells of the line:
+     * 1 vertically, height horizontally, height - 1 and height + 1 diagonally
+     * @return the number of discs in the line, capped at the win length
+     */
+    protected int countLine(long mask, long move, int shift) {
+        int count = 1;
+        long cell = move >>> shift;
+        while (count < win && (mask & cell) != 0) {
+            count++;
+            cell >>>= shift;
+        }
+        cell = move << shift;
+        while (count < win && (mask & cell) != 0) {
+            count++;
+            cell <<= shift;
+        }
+        return count;
+    }
+
+
+    /**
+     * Get the cells that would complete a line for a player
+     * @param mask the discs of the player
+     * @return the bitboard of the cells completing a line, occupied or not
+     */
+    public long getWinningCells(long mask) {
+        return getWinningCells(mask, 1)
+               | getWinningCells(mask, height)
+               | getWinningCells(mask, height - 1)
+               | getWinningCells(mask, height + 1);
+    }
+
+
+    /**
+     * Get the cells that would complete a line for a player along
+     * one direction: a cell completes a line when the other win - 1
+     * cells of some line through it all hold the player's discs
+     * @param mask the discs of the player
+     * @param shift the distance between two neighbouring cells of the line
+     * @return the bitboard of the cells completing a line, occupied or not
+     */
+    protected long getWinningCells(long mask, int shift) {
+        long cells = 0L;
+        for (int gap = 0; gap < win; gap++) {
+            long line = -1L;
+            for (int i = 0; i < win; i++) {
+                if (i != gap) {
+                    line &= shiftCells(mask, (gap - i) * shift);
+                }
+            }
+            cells |= line;
+        }
+        return cells;
+    }
+
+
+    /**
+     * Move every cell of a bitboard by a distance
+     * @param mask the bitboard to move
+     * @param distance the number of bits to move up, negative to move down
+     * @return the moved bitboard, empty if every cell moved off the board
+     */
+    private static long shiftCells(long mask, int distance) {
+        if (distance >= Long.SIZE || distance <= -Long.SIZE) {
+            return 0L;
+        }
+        return (distance >= 0) ? mask << distance : mask >>> -distance;
+    }
+
+
+    /**
+     * Return the string representation of the geometry
+     * @return the string describing the geometry
+     */
+    public String toString() {
+        return rows + "x" + columns + " connect " + win;
+    }
+
+
+    /**
+     * Connect four, with the line tests unrolled
+     */
+    private static class FourInARow extends Connect4Geometry {
+
+
+        /**
+         * Constructor for the FourInARow object
+         * @param rows the number of rows
+         * @param columns the number of columns
+         */
+        public FourInARow(int rows, int columns) {
+            super(rows, columns, 4);
+        }
+
+
+        /**
+         * Check if a disc is part of four in a row without walking the
+         * lines, which costs unpredictable branches on real games
+         * @param mask the discs of one player
+         * @param move the bit of the disc to check
+         * @return true if the disc is part of a winning line, false otherwise
+         */
+        @Override
+        public boolean isLineThrough(long mask, long move) {
+            return (lineCells(mask, 1) & move) != 0
+                   || (lineCells(mask, height) & move) != 0
+                   || (lineCells(mask, height - 1) & move) != 0
+                   || (lineCells(mask, height + 1) & move) != 0;
+        }
+
+
+        /**
+         * Get the discs that are part of four in a row along one direction
+         * @param mask the discs of the player
+         * @param shift the distance between two neighbouring cells of the line
+         * @return the bitboard of every disc of a complete line
+         */
+        private static long lineCells(long mask, int shift) {
+            long pairs = mask & (mask >>> shift);
+            long starts = pairs & (pairs >>> (2 * shift));
+            long cells = starts | (starts << shift);
+            return cells | (cells << (2 * shift));
+        }
+
+
+        /**
+         * Get the cells that would complete four in a row for a player
+         * @param mask the discs of the player
+         * @return the bitboard of the cells completing a line, occupied or not
+         */
+        @Override
+        public long getWinningCells(long mask) {
+            long cells = (mask << 1) & (mask << 2) & (mask << 3);
+            cells |= getWinningCells(mask, height);
+            cells |= getWinningCells(mask, height - 1);
+            cells |= getWinningCells(mask, height + 1);
+            return cells;
+        }
+
+
+        /**
+         * Get the cells that would complete four in a row for a player
+         * along a horizontal or diagonal direction
+         * @param mask the discs of the player
+         * @param shift the distance between two neighbouring cells of the line
+         * @return the bitboard of the cells completing a line, occupied or not
+         */
+        @Override
+        protected long getWinningCells(long mask, int shift) {
+            long pairs = (mask << shift) & (mask << (2 * shift));
+            long cells = pairs & (mask << (3 * shift));
+            cells |= pairs & (mask >>> shift);
+            pairs = (mask >>> shift) & (mask >>> (2 * shift));
+            cells |= pairs & (mask << shift);
+            cells |= pairs & (mask >>> (3 * shift));
+            return cells;
+        }
+    }
+
+
+}
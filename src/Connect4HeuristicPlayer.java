@@ -0,0 +1,46 @@
+/**
+ * Connect4HeuristicPlayer.java
+ * computer player that looks one move ahead: it wins when it can,
+ * otherwise picks at random among the moves that do not let the opponent
+ * win on the following turn. A player owns its random generator and is
+ * meant to be used by one thread.
+ */
+
+
+import java.util.SplittableRandom;
+
+
+public class Connect4HeuristicPlayer implements Connect4Player {
+
+    private SplittableRandom rand;
+
+
+    /**
+     * Constructor for the Connect4HeuristicPlayer object
+     * @param seed the seed of the player's random generator
+     */
+    public Connect4HeuristicPlayer(long seed) {
+        this.rand = new SplittableRandom(seed);
+    }
+
+
+    /**
+     * Choose a winning move, or a random move that does not lose at once
+     * @param game the position, with currentMove to play
+     * @return the column to play
+     */
+    public int chooseMove(Connect4Logic game) {
+        for (int col = 0; col < game.getColumns(); col++) {
+            if (game.verifyMove(col) && game.isWinningMove(col)) {
+                return col;
+            }
+        }
+        long next = game.getNonLosingMoves();
+        if (next == 0L) {
+            next = game.getPlayableMask();
+        }
+        return Connect4RandomPlayer.pickColumn(game, next, rand);
+    }
+
+
+}
@@ -22,6 +22,7 @@ public class Connect4LocalController extends Connect4Controller {
      */
     public Connect4LocalController(Connect4Logic game) {
         this.game = game;
+        setBoardSize(game.getRows(), game.getColumns());
     }
 
 
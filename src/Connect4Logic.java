@@ -1,28 +1,58 @@
 /**
  * Connect4Logic.java
  * implements the Connect4 game logic.
- * Board is implemented rows x columns.
+ * Board is implemented as one bitboard per player, laid out
+ * as described in Connect4Geometry. The default game is 6 rows,
+ * 7 columns and four in a row to win.
  * compiles
  * working/tested
  */
 
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 public class Connect4Logic {
 
 
-    private static final int ROWS = 6;
-    private static final int COLUMNS = 7;
-    private static final int WIN = 4;
-
     private static final char EMPTY = 'e';
     private static final char RED = 'r';
     private static final char YELLOW = 'y';
 
+    private static final long[] RED_KEYS = new long[Long.SIZE];
+    private static final long[] YELLOW_KEYS = new long[Long.SIZE];
+    private static final long YELLOW_TO_MOVE_KEY;
+
+    static {
+        long seed = 0x4C6F676963L;
+        for (int i = 0; i < Long.SIZE; i++) {
+            RED_KEYS[i] = seed = nextKey(seed);
+            YELLOW_KEYS[i] = seed = nextKey(seed);
+        }
+        YELLOW_TO_MOVE_KEY = nextKey(seed);
+    }
+
+    private final Connect4Geometry geometry;
+    private final int rows;
+    private final int columns;
+    private final int columnBits;
+    private final long bottomMask;
+    private final long topMask;
+    private final long boardMask;
+
     private char currentMove;
-    private char[][] board;
+    private long redMask;
+    private long yellowMask;
+    private int[] height;
+    private int[] moves;
+    private int moveCount;
+    private long key;
+    private long mirrorRedMask;
+    private long mirrorYellowMask;
+    private long mirrorKey;
+    private long lastMove;
+    private char lastMark;
+    private Boolean lastMoveWins;
 	private int rematch_counter = 0;
 
 
@@ -30,19 +60,100 @@ public class Connect4Logic {
      * Constructor used for the logic of Connect 4
      */
     public Connect4Logic() {
-        board = new char[ROWS][COLUMNS];
+        this(Connect4Geometry.STANDARD);
+    }
+
+
+    /**
+     * Constructor used for the logic of a game on another board
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param win the number of discs in a row needed to win
+     * @throws IllegalArgumentException if the geometry is not supported
+     */
+    public Connect4Logic(int rows, int columns, int win) {
+        this(Connect4Geometry.of(rows, columns, win));
+    }
+
+
+    /**
+     * Constructor used for the logic of a game on any geometry
+     * @param geometry the board size and win length
+     */
+    public Connect4Logic(Connect4Geometry geometry) {
+        this.geometry = geometry;
+        this.rows = geometry.getRows();
+        this.columns = geometry.getColumns();
+        this.columnBits = geometry.getHeight();
+        this.bottomMask = geometry.getBottomMask();
+        this.topMask = geometry.getTopMask();
+        this.boardMask = geometry.getBoardMask();
+        height = new int[columns];
+        moves = new int[rows * columns];
         reset();
     }
 
 
+    /**
+     * Copy constructor, used to give each search thread its own
+     * copy of a position
+     * @param other the game logic to copy
+     */
+    public Connect4Logic(Connect4Logic other) {
+        geometry = other.geometry;
+        rows = other.rows;
+        columns = other.columns;
+        columnBits = other.columnBits;
+        bottomMask = other.bottomMask;
+        topMask = other.topMask;
+        boardMask = other.boardMask;
+        currentMove = other.currentMove;
+        redMask = other.redMask;
+        yellowMask = other.yellowMask;
+        height = other.height.clone();
+        moves = other.moves.clone();
+        moveCount = other.moveCount;
+        key = other.key;
+        mirrorRedMask = other.mirrorRedMask;
+        mirrorYellowMask = other.mirrorYellowMask;
+        mirrorKey = other.mirrorKey;
+        lastMove = other.lastMove;
+        lastMark = other.lastMark;
+        lastMoveWins = other.lastMoveWins;
+        rematch_counter = other.rematch_counter;
+    }
+
+
+    /**
+     * Generate the next value of the fixed pseudo random sequence used
+     * for the position keys, so keys are the same in every run
+     * @param seed the previous value of the sequence
+     * @return the next value of the sequence
+     */
+    private static long nextKey(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+
     /**
      * Clear the game board
      */
     private void clear() {
-        for(int i = 0; i < ROWS; i++) {
-            for(int j = 0; j < COLUMNS; j++) {
-                board[i][j] = EMPTY;
-            }
+        redMask = 0L;
+        yellowMask = 0L;
+        lastMove = 0L;
+        lastMark = EMPTY;
+        lastMoveWins = null;
+        moveCount = 0;
+        key = (currentMove == YELLOW) ? YELLOW_TO_MOVE_KEY : 0L;
+        mirrorRedMask = 0L;
+        mirrorYellowMask = 0L;
+        mirrorKey = key;
+        for (int i = 0; i < columns; i++) {
+            height[i] = i * columnBits;
         }
     }
 
@@ -61,7 +172,7 @@ public class Connect4Logic {
      * @return the number of rows
      */
     public int getRows() {
-        return ROWS;
+        return rows;
     }
 
 
@@ -70,7 +181,25 @@ public class Connect4Logic {
      * @return the number of columns
      */
     public int getColumns() {
-        return COLUMNS;
+        return columns;
+    }
+
+
+    /**
+     * Get the number of discs in a row needed to win
+     * @return the win length
+     */
+    public int getWin() {
+        return geometry.getWin();
+    }
+
+
+    /**
+     * Get the board size and win length of the game
+     * @return the geometry of the game
+     */
+    public Connect4Geometry getGeometry() {
+        return geometry;
     }
 
 
@@ -93,15 +222,14 @@ public class Connect4Logic {
 
 
     /**
-     * Use a random number generator to select the player 
-     * who will go first
+     * Use the random number generator of the calling thread to select
+     * the player who will go first, so resets neither allocate nor
+     * contend between threads
      * @return the character representing the player who 
      * will go first
      */
     private char setFirstMove() {
-        Random rand = new Random();
-        int result = Math.abs(rand.nextInt()) % 2;
-        return (result == 0) ? RED : YELLOW;
+        return ThreadLocalRandom.current().nextBoolean() ? RED : YELLOW;
     }
 
 
@@ -112,7 +240,7 @@ public class Connect4Logic {
      * position to move to, false otherwise
      */
     public boolean verifyMove(int col) {
-        return board[0][col] == EMPTY;
+        return height[col] < col * columnBits + rows;
     }
 
 
@@ -123,27 +251,160 @@ public class Connect4Logic {
      * @return the row position that the mark was placed
      */
     public int makeMove(int col) {
-        int result = findPosition(col);
-        board[result][col] = currentMove;
-        return result;
+        long move = 1L << height[col];
+        int mirror = mirrorBit(col);
+        if (currentMove == RED) {
+            redMask |= move;
+            mirrorRedMask |= 1L << mirror;
+            key ^= RED_KEYS[height[col]];
+            mirrorKey ^= RED_KEYS[mirror];
+        } else {
+            yellowMask |= move;
+            mirrorYellowMask |= 1L << mirror;
+            key ^= YELLOW_KEYS[height[col]];
+            mirrorKey ^= YELLOW_KEYS[mirror];
+        }
+        lastMove = move;
+        lastMark = currentMove;
+        lastMoveWins = null;
+        moves[moveCount++] = col;
+        return rows - 1 - (height[col]++ - col * columnBits);
     }
 
 
     /**
-     * Find the first available row position in a column
-     * @param col the column to check
-     * @return the first available row position
-     */
-    private int findPosition(int col) {
-        int result = -1;
-        for (int i = 0; i < ROWS; i++) {
-            if (board[i][col] == EMPTY) {
-                result++;
-            } else {
-                return result;
-            }
+     * Take back the most recent move. Like makeMove, this does not
+     * switch turns, so a search undoes a move with switchTurns followed
+     * by undoMove.
+     * @return the column position of the move taken back
+     */
+    public int undoMove() {
+        int col = moves[--moveCount];
+        long move = 1L << --height[col];
+        int mirror = mirrorBit(col);
+        if ((redMask & move) != 0) {
+            key ^= RED_KEYS[height[col]];
+            mirrorKey ^= RED_KEYS[mirror];
+        } else {
+            key ^= YELLOW_KEYS[height[col]];
+            mirrorKey ^= YELLOW_KEYS[mirror];
+        }
+        redMask &= ~move;
+        yellowMask &= ~move;
+        mirrorRedMask &= ~(1L << mirror);
+        mirrorYellowMask &= ~(1L << mirror);
+        if (moveCount == 0) {
+            lastMove = 0L;
+            lastMark = EMPTY;
+        } else {
+            lastMove = 1L << (height[moves[moveCount - 1]] - 1);
+            lastMark = ((redMask & lastMove) != 0) ? RED : YELLOW;
         }
-        return result;
+        lastMoveWins = null;
+        return col;
+    }
+
+
+    /**
+     * Find the bit of the left-right mirror image of the top of a column
+     * @param col the column position
+     * @return the bit index of the first empty cell of the column, as
+     * seen in the mirror image of the board
+     */
+    private int mirrorBit(int col) {
+        return height[col] + (columns - 1 - 2 * col) * columnBits;
+    }
+
+
+    /**
+     * Get the number of discs on the game board
+     * @return the number of moves made since the last reset
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+
+    /**
+     * Get a move of the game
+     * @param index the number of moves made before it
+     * @return the column position of the move
+     */
+    public int getMove(int index) {
+        return moves[index];
+    }
+
+
+    /**
+     * Get the 64-bit key of the position. The key is updated by every
+     * move, take back and change of turn, so equal positions with the
+     * same player to move share a key however they were reached.
+     * @return the key of the position
+     */
+    public long getKey() {
+        return key;
+    }
+
+
+    /**
+     * Get a code that identifies the position exactly. Adding the bottom
+     * row to the discs of both players marks the first empty cell of each
+     * column, and adding the discs of the player to move records who owns
+     * the cells below it. Unlike getKey, the code does
+     * not depend on colors and two positions never share it, so it can
+     * index files that outlive a run, such as an opening book.
+     * @return the code of the position
+     */
+    public long getPositionCode() {
+        return getCurrentMask() + getOccupiedMask() + bottomMask;
+    }
+
+
+    /**
+     * Get a key shared by the position and its left-right mirror image,
+     * which have the same value. The key of the mirror image is kept up
+     * to date alongside getKey, so this costs one comparison.
+     * @return the smaller of the keys of the position and of its mirror
+     */
+    public long getCanonicalKey() {
+        return Math.min(key, mirrorKey);
+    }
+
+
+    /**
+     * Check if getCanonicalKey comes from the mirror image of the
+     * position, in which case a column c stored under that key is
+     * column getColumns() - 1 - c of this position
+     * @return true if the canonical key is the key of the mirror image
+     */
+    public boolean isCanonicalMirrored() {
+        return mirrorKey < key;
+    }
+
+
+    /**
+     * Get a position code shared by the position and its left-right
+     * mirror image, built like getPositionCode from boards that are kept
+     * mirrored move by move
+     * @return the smaller of the codes of the position and of its mirror,
+     * compared as unsigned numbers
+     */
+    public long getCanonicalPositionCode() {
+        long code = getPositionCode();
+        long mirrorCurrent = (currentMove == RED) ? mirrorRedMask : mirrorYellowMask;
+        long mirrorCode = mirrorCurrent + (mirrorRedMask | mirrorYellowMask) + bottomMask;
+        return (Long.compareUnsigned(code, mirrorCode) <= 0) ? code : mirrorCode;
+    }
+
+
+    /**
+     * Take an immutable snapshot of the position, which other threads
+     * can read without locking while this game goes on
+     * @return the discs of both players, the player to move and the
+     * number of discs
+     */
+    public Connect4Position snapshot() {
+        return new Connect4Position(geometry, redMask, yellowMask, currentMove, moveCount);
     }
 
 
@@ -152,153 +413,181 @@ public class Connect4Logic {
      * @return true if the game ended in a draw, false otherwise
      */
     public boolean isDraw() {
-        for(int i = 0; i < COLUMNS; i++) {
-            if(board[0][i] == EMPTY) {
-                return false;
-            }
-        }
-        return true;
+        return ((redMask | yellowMask) & topMask) == topMask;
     }
 
 
     /**
-     * Check if the player associated with currentMove won the game
+     * Check if the player associated with currentMove won the game.
+     * Only the lines through the last disc placed can have changed, so
+     * only those are checked, and the answer is kept until the next move.
      * @return true if the player associated with currentMove won the game,
      * false otherwise
      */
     public boolean isWin() {
-        return checkRows() || checkColumns() || checkDiagonals();
+        return lastMark == currentMove && isLastMoveWin();
     }
 
 
     /**
-     * Increment the rematch counter
+     * Check if the most recent move completed a line, whichever
+     * player made it
+     * @return true if the last disc placed won the game, false otherwise
      */
-	public void incRematch(){
-		rematch_counter += 1;
-	}
+    public boolean isLastMoveWin() {
+        if (lastMark == EMPTY) {
+            return false;
+        }
+        if (lastMoveWins == null) {
+            lastMoveWins = geometry.isLineThrough(getMask(lastMark), lastMove);
+        }
+        return lastMoveWins;
+    }
+
 
-	   
     /**
-     * Reset the rematch counter
+     * Get the discs of the player represented by currentMove
+     * @return the bitboard of the current player's discs
      */
-	public void resetRematch(){
-		rematch_counter = 0;
-	}
-	
+    public long getCurrentMask() {
+        return getMask(currentMove);
+    }
+
 
     /**
-     * Check all the rows in the game board for a winner
-     * @return true if a winner is found, false otherwise
+     * Get the discs of both players
+     * @return the bitboard of every occupied cell
      */
-    private boolean checkRows() {
-        for(int i = 0; i < ROWS; i++) {
-            int count = 0;
-            for(int j = 0; j < COLUMNS; j++) {
-                count = updateCount(count, i, j);
-                if (count == WIN) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public long getOccupiedMask() {
+        return redMask | yellowMask;
     }
 
 
     /**
-     * Check all the columns in the game board for a winner
-     * @return true if a winner is found, false otherwise
+     * Get the cells of a column
+     * @param col the column position
+     * @return the bitboard of every cell in the column
      */
-    private boolean checkColumns() {
-        for(int i = 0; i < COLUMNS; i++) {
-            int count = 0;
-            for(int j = 0; j < ROWS; j++) {
-                count = updateCount(count, j, i);
-                if (count == WIN) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public long getColumnMask(int col) {
+        return geometry.getColumnMask(col);
     }
 
 
     /**
-     * Check all the diagonals in the game board for a winner
-     * @return true if a winner is found, false otherwise
+     * Get the cells a disc can be placed in this turn
+     * @return the bitboard of the lowest empty cell of every open column
      */
-    private boolean checkDiagonals() {
+    public long getPlayableMask() {
+        return (getOccupiedMask() + bottomMask) & boardMask;
+    }
 
-        for (int i = 0; i <= ROWS-WIN; i++) {
-            if (checkRightDiagonal(i, 0)
-                ||
-                checkLeftDiagonal(i, COLUMNS-1)) {
-                return true;
-            }
-        }
 
+    /**
+     * Check if the player represented by currentMove can win
+     * with their next disc
+     * @return true if a playable cell completes a line, false otherwise
+     */
+    public boolean canWinNext() {
+        return (getWinningCells(getCurrentMask()) & getPlayableMask()) != 0;
+    }
 
-        for (int i = 1; i <= COLUMNS-WIN; i++) {
-            if (checkRightDiagonal(0, i)
-                ||
-                checkLeftDiagonal(0, COLUMNS-i-1)) {
-                return true;
-            }
-        }
-        return false;
+
+    /**
+     * Check if a move wins the game for the player represented by currentMove
+     * @param col the column to check
+     * @return true if a disc in the column completes a line, false otherwise
+     */
+    public boolean isWinningMove(int col) {
+        return (getWinningCells(getCurrentMask())
+                & getPlayableMask()
+                & getColumnMask(col)) != 0;
     }
 
 
     /**
-     * Check a right diagonal
-     * @param row the starting row position
-     * @param col the starting column position
-     * @return true if the diagonal contains a winner, false otherwise
+     * Count the threats a move would give the player represented by
+     * currentMove
+     * @param move the bit of a playable cell
+     * @return the number of empty cells that would complete a line for
+     * the player once the move is made
      */
-    private boolean checkRightDiagonal(int row, int col) {
-        int count = 0;
-        while (row < ROWS && col < COLUMNS) {
-            count = updateCount(count, row, col);
-            if (count == WIN) {
-                return true;
-            }
-            row++;
-            col++;
-        }
-        return false;
+    public int countThreats(long move) {
+        long occupied = getOccupiedMask() | move;
+        return Long.bitCount(geometry.getWinningCells(getCurrentMask() | move)
+                             & (boardMask ^ occupied));
     }
 
 
     /**
-     * Check a left diagonal
-     * @param row the starting row position
-     * @param col the starting column position
-     * @return true if the diagonal contains a winner, false otherwise
+     * Get the moves of the player represented by currentMove that do
+     * not let the opponent win on the following turn. The player must
+     * not be able to win immediately.
+     * @return the bitboard of the playable cells that do not lose at once,
+     * empty if every move loses
      */
-    private boolean checkLeftDiagonal(int row, int col) {
-        int count = 0;
-        while (row < ROWS && col >= 0) {
-            count = updateCount(count, row, col);
-            if (count == WIN) {
-                return true;
+    public long getNonLosingMoves() {
+        long playable = getPlayableMask();
+        long threats = getWinningCells(getMask(currentMove == RED ? YELLOW : RED));
+        long forced = playable & threats;
+        if (forced != 0) {
+            if ((forced & (forced - 1)) != 0) {
+                return 0L;
             }
-            row++;
-            col--;
+            playable = forced;
         }
-        return false;
+        return playable & ~(threats >>> 1);
+    }
+
+
+    /**
+     * Get the empty cells that would complete a line for a player
+     * @param mask the discs of the player
+     * @return the bitboard of the empty cells completing a line
+     */
+    private long getWinningCells(long mask) {
+        return geometry.getWinningCells(mask) & (boardMask ^ getOccupiedMask());
+    }
+
+
+
+    /**
+     * Increment the rematch counter
+     */
+	public void incRematch(){
+		rematch_counter += 1;
+	}
+
+	   
+    /**
+     * Reset the rematch counter
+     */
+	public void resetRematch(){
+		rematch_counter = 0;
+	}
+	
+
+    /**
+     * Get the discs of a player
+     * @param mark the character of the player {'r'|'y'}
+     * @return the bitboard of the player's discs
+     */
+    private long getMask(char mark) {
+        return (mark == RED) ? redMask : yellowMask;
     }
 
 
     /**
-     * Update the count by checking the value of the location
-     * given by row and column
-     * @param count the current count
-     * @param row the row position to check
-     * @param col the column position to check
-     * @return the updated count
+     * Get the mark at a position of the game board
+     * @param row the row position, 0 being the top row
+     * @param col the column position
+     * @return the mark at the position {'e'|'r'|'y'}
      */
-    private int updateCount(int count, int row, int col) {
-        return (board[row][col] == currentMove) ? ++count : 0;
+    private char getMark(int row, int col) {
+        long cell = 1L << (col * columnBits + rows - 1 - row);
+        if ((redMask & cell) != 0) {
+            return RED;
+        }
+        return ((yellowMask & cell) != 0) ? YELLOW : EMPTY;
     }
 
 
@@ -307,6 +596,8 @@ public class Connect4Logic {
      */
     public void switchTurns() {
         currentMove = (currentMove == RED) ? YELLOW : RED;
+        key ^= YELLOW_TO_MOVE_KEY;
+        mirrorKey ^= YELLOW_TO_MOVE_KEY;
     }
 
 
@@ -314,15 +605,7 @@ public class Connect4Logic {
      * Print the game board
      */
     public void print() {
-        for(int i = 0; i < ROWS; i++) {
-            for(int j = 0; j < COLUMNS; j++) {
-                System.out.print(board[i][j] + " ");
-                if(j == COLUMNS-1) {
-                    System.out.print('\n');
-                }
-            }
-        }
-
+        System.out.print(this);
     }
 
 
@@ -331,16 +614,14 @@ public class Connect4Logic {
      * @return the string representing the game board
      */
     public String toString() {
-        String result = "";
-        for(int i = 0; i < ROWS; i++) {
-            for(int j = 0; j < COLUMNS; j++) {
-                result += board[i][j] + " ";
-                if(j == COLUMNS-1) {
-                    result += "\n";
-                }
+        StringBuilder result = new StringBuilder(rows * (2 * columns + 1));
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < columns; j++) {
+                result.append(getMark(i, j)).append(' ');
             }
+            result.append('\n');
         }
-        return result;
+        return result.toString();
     }
 
 
@@ -0,0 +1,452 @@
+/**
+ * Connect4MCTSPlayer.java
+ * computer player using Monte Carlo tree search. Every thread of the
+ * player grows the same tree: it walks down by UCT, adds the children of
+ * the leaf it reaches, finishes the game with a random playout and adds
+ * the result to every node on its path.
+ *
+ * Nodes live in primitive and atomic arrays allocated once, when the
+ * player is created, and reused for every move, so a search does not
+ * allocate per node. Threads never lock: counters are atomic, a leaf is
+ * expanded by the one thread that claims it, and a thread walking down
+ * adds a virtual loss to each node it passes so that the others spread
+ * out over the tree instead of all following the same path.
+ *
+ * Strength is set by the number of playouts per move. Playouts may be
+ * guided, taking a winning move when there is one and avoiding moves
+ * that let the opponent win at once, which costs some speed but makes
+ * each playout a much better estimate.
+ *
+ * Each thread draws from its own generator, split from the seed the
+ * player is given. A single-threaded player given the same seed plays
+ * the same games; with more threads the playouts depend on how the
+ * threads interleave.
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class Connect4MCTSPlayer implements Connect4Player {
+
+    public static final int DEFAULT_PLAYOUTS = 100000;
+    public static final int DEFAULT_NODES = 1 << 20;
+    public static final double DEFAULT_EXPLORATION = Math.sqrt(2);
+
+    private static final int ROOT = 0;
+    private static final int NEW = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+    private static final int EXPAND_VISITS = 2;
+    private static final int BATCH = 64;
+    private static final int WIN = 2;
+    private static final int DRAW = 1;
+    private static final int LOSS = 0;
+
+    private ForkJoinPool pool;
+    private List<Worker> workers;
+    private int playouts;
+    private double exploration;
+    private boolean guided;
+
+    private int capacity;
+    private int[] move;
+    private int[] firstChild;
+    private int[] childCount;
+    private AtomicIntegerArray state;
+    private AtomicIntegerArray visits;
+    private AtomicIntegerArray score;
+    private AtomicInteger nextNode;
+    private AtomicLong remaining;
+
+    private long lastPlayouts;
+    private long lastNanos;
+
+
+    /**
+     * Constructor for a player using every available core
+     */
+    public Connect4MCTSPlayer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PLAYOUTS);
+    }
+
+
+    /**
+     * Constructor for a player with guided playouts
+     * @param threads the number of search threads
+     * @param playouts the number of playouts per move
+     */
+    public Connect4MCTSPlayer(int threads, int playouts) {
+        this(threads, playouts, DEFAULT_NODES, DEFAULT_EXPLORATION, true);
+    }
+
+
+    /**
+     * Constructor for a player
+     * @param threads the number of search threads
+     * @param playouts the number of playouts per move
+     * @param nodes the number of tree nodes allocated up front; once they
+     * are used up the tree stops growing for the rest of the move
+     * @param exploration the UCT exploration constant
+     * @param guided true for playouts that take wins and avoid
+     * immediate losses, false for uniformly random playouts
+     */
+    public Connect4MCTSPlayer(int threads, int playouts, int nodes,
+                              double exploration, boolean guided) {
+        this(threads, playouts, nodes, exploration, guided, System.nanoTime());
+    }
+
+
+    /**
+     * Constructor for a player with seeded playouts
+     * @param threads the number of search threads
+     * @param playouts the number of playouts per move
+     * @param nodes the number of tree nodes allocated up front; once they
+     * are used up the tree stops growing for the rest of the move
+     * @param exploration the UCT exploration constant
+     * @param guided true for playouts that take wins and avoid
+     * immediate losses, false for uniformly random playouts
+     * @param seed the seed the generators of the threads are split from
+     */
+    public Connect4MCTSPlayer(int threads, int playouts, int nodes,
+                              double exploration, boolean guided, long seed) {
+        if (threads < 1 || playouts < 1 || nodes < Long.SIZE + 1) {
+            throw new IllegalArgumentException("Invalid thread, playout or node count");
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.playouts = playouts;
+        this.exploration = exploration;
+        this.guided = guided;
+        this.capacity = nodes;
+        this.move = new int[nodes];
+        this.firstChild = new int[nodes];
+        this.childCount = new int[nodes];
+        this.state = new AtomicIntegerArray(nodes);
+        this.visits = new AtomicIntegerArray(nodes);
+        this.score = new AtomicIntegerArray(nodes);
+        this.nextNode = new AtomicInteger();
+        this.remaining = new AtomicLong();
+        this.workers = new ArrayList<Worker>();
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(seeds.split()));
+        }
+    }
+
+
+    /**
+     * Choose a move by searching for the configured number of playouts.
+     * A winning move is played at once, without searching.
+     * @param game the position, with currentMove to play
+     * @return the column visited most often by the search
+     * @throws IllegalArgumentException if the game is over
+     */
+    public synchronized int chooseMove(Connect4Logic game) {
+        if (game.isLastMoveWin() || game.isDraw()) {
+            throw new IllegalArgumentException("The game is over");
+        }
+        long start = System.nanoTime();
+        lastPlayouts = 0;
+        for (int col = 0; col < game.getColumns(); col++) {
+            if (game.verifyMove(col) && game.isWinningMove(col)) {
+                lastNanos = System.nanoTime() - start;
+                return col;
+            }
+        }
+
+        nextNode.set(ROOT + 1);
+        initNode(ROOT, -1);
+        remaining.set(playouts);
+        for (Worker worker : workers) {
+            worker.attach(game);
+        }
+        pool.invokeAll(workers);
+
+        int best = -1;
+        int bestVisits = -1;
+        for (int i = 0; i < childCount[ROOT]; i++) {
+            int child = firstChild[ROOT] + i;
+            if (visits.get(child) > bestVisits) {
+                bestVisits = visits.get(child);
+                best = move[child];
+            }
+        }
+        lastPlayouts = playouts;
+        lastNanos = System.nanoTime() - start;
+        return best;
+    }
+
+
+    /**
+     * Get the number of playouts made for the last move
+     * @return the number of playouts, 0 if the move was a forced win
+     */
+    public long getPlayouts() {
+        return lastPlayouts;
+    }
+
+
+    /**
+     * Get the time taken to choose the last move
+     * @return the search time in nanoseconds
+     */
+    public long getNanos() {
+        return lastNanos;
+    }
+
+
+    /**
+     * Get the speed of the last search
+     * @return the number of playouts per second
+     */
+    public long getPlayoutsPerSecond() {
+        return (lastNanos == 0) ? 0 : lastPlayouts * 1000000000L / lastNanos;
+    }
+
+
+    /**
+     * Get the number of tree nodes used by the last search
+     * @return the number of nodes allocated from the pool
+     */
+    public int getNodesUsed() {
+        return Math.min(nextNode.get(), capacity);
+    }
+
+
+    /**
+     * Stop the search threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+
+    /**
+     * Reset a node taken from the pool
+     * @param node the index of the node
+     * @param col the column played to reach the node
+     */
+    private void initNode(int node, int col) {
+        move[node] = col;
+        childCount[node] = 0;
+        visits.set(node, 0);
+        score.set(node, 0);
+        state.set(node, NEW);
+    }
+
+
+    /**
+     * Add a child for every open column of a leaf. Only the thread that
+     * claimed the leaf calls this, and other threads read the children
+     * only once the state of the leaf says they are ready.
+     * @param node the index of the leaf
+     * @param game the position of the leaf
+     * @return true if the children were added, false if the pool is full
+     */
+    private boolean expand(int node, Connect4Logic game) {
+        int count = 0;
+        for (int col = 0; col < game.getColumns(); col++) {
+            if (game.verifyMove(col)) {
+                count++;
+            }
+        }
+        if (nextNode.get() + count > capacity) {
+            return false;
+        }
+        int first = nextNode.getAndAdd(count);
+        if (first + count > capacity) {
+            return false;
+        }
+        int child = first;
+        for (int col = 0; col < game.getColumns(); col++) {
+            if (game.verifyMove(col)) {
+                initNode(child++, col);
+            }
+        }
+        firstChild[node] = first;
+        childCount[node] = count;
+        return true;
+    }
+
+
+    /**
+     * Pick the child of a node with the best UCT value, as seen by the
+     * player to move at the node. Children never visited come first.
+     * @param node the index of an expanded node
+     * @return the index of the child
+     */
+    private int select(int node) {
+        double logVisits = Math.log(Math.max(visits.get(node), 1));
+        int best = firstChild[node];
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < childCount[node]; i++) {
+            int child = firstChild[node] + i;
+            int n = visits.get(child);
+            if (n == 0) {
+                return child;
+            }
+            double value = score.get(child) / (2.0 * n)
+                           + exploration * Math.sqrt(logVisits / n);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * A search thread, with its own copy of the position
+     */
+    private class Worker implements Callable<Void> {
+
+        private Connect4Logic game;
+        private int[] path;
+        private int columnBits;
+        private SplittableRandom rand;
+
+
+        /**
+         * Constructor for the Worker object
+         * @param rand the random generator of the thread
+         */
+        Worker(SplittableRandom rand) {
+            this.rand = rand;
+        }
+
+
+        /**
+         * Copy the position to search from
+         * @param root the position at the root of the tree
+         */
+        public void attach(Connect4Logic root) {
+            game = new Connect4Logic(root);
+            columnBits = game.getGeometry().getHeight();
+            if (path == null || path.length <= game.getRows() * game.getColumns()) {
+                path = new int[game.getRows() * game.getColumns() + 1];
+            }
+        }
+
+
+        /**
+         * Run playouts until the shared budget is spent
+         * @return nothing
+         */
+        @Override
+        public Void call() {
+            while (true) {
+                long claimed = remaining.getAndAdd(-BATCH);
+                if (claimed <= 0) {
+                    return null;
+                }
+                for (long i = Math.min(claimed, BATCH); i > 0; i--) {
+                    iterate();
+                }
+            }
+        }
+
+
+        /**
+         * Walk down the tree, play out the game from the leaf reached,
+         * and add the result to every node of the path
+         */
+        private void iterate() {
+            int depth = 0;
+            int node = ROOT;
+            path[0] = ROOT;
+            visits.incrementAndGet(ROOT);
+            int result;
+            while (true) {
+                if (game.isLastMoveWin()) {
+                    result = LOSS;
+                    break;
+                }
+                if (game.isDraw()) {
+                    result = DRAW;
+                    break;
+                }
+                int nodeState = state.get(node);
+                if (nodeState == NEW
+                    && (node == ROOT || visits.get(node) >= EXPAND_VISITS)
+                    && state.compareAndSet(node, NEW, EXPANDING)) {
+                    nodeState = expand(node, game) ? EXPANDED : NEW;
+                    state.set(node, nodeState);
+                }
+                if (nodeState != EXPANDED) {
+                    result = playout();
+                    break;
+                }
+                node = select(node);
+                visits.incrementAndGet(node);
+                game.makeMove(move[node]);
+                game.switchTurns();
+                path[++depth] = node;
+            }
+
+            for (int d = depth; d >= 0; d--) {
+                result = WIN - result;
+                score.addAndGet(path[d], result);
+                if (d > 0) {
+                    game.switchTurns();
+                    game.undoMove();
+                }
+            }
+        }
+
+
+        /**
+         * Finish the game with random moves and take them back
+         * @return WIN, DRAW or LOSS for the player to move when
+         * the playout started
+         */
+        private int playout() {
+            int played = 0;
+            int result;
+            while (true) {
+                if (game.isDraw()) {
+                    result = DRAW;
+                    break;
+                }
+                long next = 0L;
+                if (guided) {
+                    if (game.canWinNext()) {
+                        result = WIN;
+                        break;
+                    }
+                    next = game.getNonLosingMoves();
+                }
+                if (next == 0L) {
+                    next = game.getPlayableMask();
+                }
+                for (int skip = rand.nextInt(Long.bitCount(next)); skip > 0; skip--) {
+                    next &= next - 1;
+                }
+                game.makeMove(Long.numberOfTrailingZeros(next) / columnBits);
+                game.switchTurns();
+                played++;
+                if (game.isLastMoveWin()) {
+                    result = LOSS;
+                    break;
+                }
+            }
+            if ((played & 1) != 0) {
+                result = WIN - result;
+            }
+            for (int i = 0; i < played; i++) {
+                game.switchTurns();
+                game.undoMove();
+            }
+            return result;
+        }
+    }
+
+
+}
@@ -0,0 +1,399 @@
+/**
+ * Connect4Matchmaker.java
+ * seats the clients of the server in games, either in the lobby, where
+ * they list the games of the registry and create or join one, or by
+ * quick match, pairing each with the next client asking for the same
+ * board. A client whose first line is a lobby command stays in the
+ * lobby until it creates or joins a game; any other first line, such as
+ * the DISPLAY the game client sends on connecting, asks for a quick
+ * match.
+ *
+ * Accepting a client only starts reading it. Creating, joining and
+ * pairing are requests run in order by one matcher thread, so a burst
+ * of connections never holds up the accept loop, two clients never join
+ * the same game, and no client is seated with a partner that has already
+ * left. Listing the lobby is answered on the client's own thread from
+ * the registry's snapshot.
+ *
+ * Lines a client sends before its game begins, such as its display name,
+ * are kept and handed to the game when it starts. Quick match pairs
+ * clients within a bucket, the board geometry; any key with equals and
+ * hashCode would do, a rating band for example.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class Connect4Matchmaker implements Runnable {
+
+    private static final int MAX_EARLY_LINES = 16;
+    private static final int NEW = 0;
+    private static final int LOBBY = 1;
+    private static final int QUICK = 2;
+    private static char RED = 'r';
+    private static char YELLOW = 'y';
+
+    private Executor workers;
+    private Connect4GameRegistry registry;
+    private BlockingQueue<Runnable> requests = new LinkedBlockingQueue<>();
+    // only touched by the matcher thread
+    private Map<Long, Ticket> hosts = new HashMap<>();
+    private Map<Connect4Geometry, Ticket> waiting = new HashMap<>();
+    private volatile long games;
+    private volatile long skipped;
+
+
+    /**
+     * Constructor for the Connect4Matchmaker object
+     * @param workers the pool running the events of the games started
+     * @param registry the registry the games are listed in
+     */
+    public Connect4Matchmaker(Executor workers, Connect4GameRegistry registry) {
+        this.workers = workers;
+        this.registry = registry;
+    }
+
+
+    /**
+     * Start the matcher thread
+     */
+    public void start() {
+        Thread thread = new Thread(this, "matchmaker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Start reading a new client, to seat it in a game. Never blocks.
+     * @param connection the connection of the client
+     * @param geometry the board the client plays on in a quick match,
+     * and in the games it creates without naming one
+     */
+    public void submit(Connect4Connection connection, Connect4Geometry geometry) {
+        connection.open(new Ticket(connection, geometry));
+    }
+
+
+    /**
+     * Get the number of games started
+     * @return the number of pairs made
+     */
+    public long getGames() {
+        return games;
+    }
+
+
+    /**
+     * Get the number of clients that left before they were seated
+     * @return the number of clients skipped
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+
+    /**
+     * The Thread run method, running requests as they arrive
+     */
+    public void run() {
+        try {
+            while (true) {
+                requests.take().run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Pair a client with the client waiting for a quick match on the
+     * same board, or make it the one waiting
+     * @param ticket the client
+     */
+    private void quickMatch(Ticket ticket) {
+        if (ticket.gone) {
+            return;
+        }
+        Ticket host = waiting.remove(ticket.geometry);
+        if (host == null || host.gone) {
+            host(ticket, ticket.geometry, true);
+        } else {
+            pair(host, ticket);
+        }
+    }
+
+
+    /**
+     * Open a game in the lobby for a client
+     * @param ticket the client
+     * @param geometry the board of the game
+     */
+    private void create(Ticket ticket, Connect4Geometry geometry) {
+        if (ticket.gone) {
+            return;
+        }
+        if (ticket.entry != null) {
+            ticket.connection.send("ERROR Already waiting in game " + ticket.entry.getId());
+            return;
+        }
+        ticket.connection.send("CREATED " + host(ticket, geometry, false).getId());
+    }
+
+
+    /**
+     * Seat a client in an open game of the lobby
+     * @param ticket the client
+     * @param id the id of the game
+     */
+    private void join(Ticket ticket, long id) {
+        if (ticket.gone) {
+            return;
+        }
+        if (ticket.entry != null) {
+            ticket.connection.send("ERROR Already waiting in game " + ticket.entry.getId());
+            return;
+        }
+        Ticket host = hosts.get(id);
+        if (host == null || host.gone) {
+            ticket.connection.send("ERROR No open game " + id);
+            return;
+        }
+        waiting.remove(host.geometry, host);
+        pair(host, ticket);
+    }
+
+
+    /**
+     * Open a game with a client waiting in it
+     * @param ticket the client
+     * @param geometry the board of the game
+     * @param quick true if the game is the one quick match fills next
+     * @return the entry of the game
+     */
+    private Connect4GameRegistry.Entry host(Ticket ticket, Connect4Geometry geometry,
+                                            boolean quick) {
+        ticket.entry = registry.open(geometry, ticket.name);
+        hosts.put(ticket.entry.getId(), ticket);
+        if (quick) {
+            waiting.put(geometry, ticket);
+        }
+        return ticket.entry;
+    }
+
+
+    /**
+     * Close the open game of a client who left before it began
+     * @param ticket the client
+     */
+    private void leave(Ticket ticket) {
+        skipped++;
+        if (ticket.entry != null && hosts.remove(ticket.entry.getId(), ticket)) {
+            waiting.remove(ticket.geometry, ticket);
+            ticket.entry.remove();
+        }
+    }
+
+
+    /**
+     * Start a game between the client waiting in it, playing red, and
+     * the client joining it
+     * @param host the client who waited
+     * @param guest the other client
+     */
+    private void pair(Ticket host, Ticket guest) {
+        Connect4GameRegistry.Entry entry = host.entry;
+        hosts.remove(entry.getId());
+        entry.setState(Connect4GameRegistry.PLAYING);
+        Connect4NetGame game = new Connect4NetGame(new Connect4Logic(entry.getGeometry()),
+                                                   workers, entry);
+        Connect4NetGame.ClientHandler p1 = game.new ClientHandler(host.connection, RED);
+        Connect4NetGame.ClientHandler p2 = game.new ClientHandler(guest.connection, YELLOW);
+        p1.setOpponent(p2);
+        p2.setOpponent(p1);
+        p1.start();
+        p2.start();
+        host.seat(p1);
+        guest.seat(p2);
+        games++;
+    }
+
+
+    /**
+     * A client waiting for a game, then the listener passing its lines
+     * on to its handler once it has one
+     */
+    private class Ticket implements Connect4Connection.Listener {
+
+        private Connect4Connection connection;
+        private Connect4Geometry geometry;
+        private ReentrantLock lock = new ReentrantLock();
+        private List<String> early = new ArrayList<>();
+        private Connect4Connection.Listener handler;
+        private int path = NEW;
+        private volatile String name;
+        // set by the matcher thread when the client opens a game
+        private volatile Connect4GameRegistry.Entry entry;
+        private volatile boolean gone;
+
+
+        /**
+         * Constructor for the Ticket object
+         * @param connection the connection of the client
+         * @param geometry the board the client plays on by default
+         */
+        Ticket(Connect4Connection connection, Connect4Geometry geometry) {
+            this.connection = connection;
+            this.geometry = geometry;
+        }
+
+
+        /**
+         * Hand the client to the handler of its game, with the lines it
+         * sent while waiting
+         * @param handler the handler of the client
+         */
+        void seat(Connect4Connection.Listener handler) {
+            lock.lock();
+            try {
+                this.handler = handler;
+                for (String line : early) {
+                    handler.received(line);
+                }
+                early = null;
+                if (gone) {
+                    handler.disconnected();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+
+        /**
+         * Pass a line on to the handler, or answer it in the lobby
+         * @param line the line
+         */
+        @Override
+        public void received(String line) {
+            lock.lock();
+            try {
+                if (handler != null) {
+                    handler.received(line);
+                } else if (line.startsWith("QUIT")) {
+                    gone = true;
+                    connection.close();
+                    requests.add(() -> leave(this));
+                } else if (line.startsWith("LIST")) {
+                    enter(LOBBY);
+                    connection.send(registry.list());
+                } else if (line.startsWith("CREATE")) {
+                    enter(LOBBY);
+                    create(line);
+                } else if (line.startsWith("JOIN")) {
+                    enter(LOBBY);
+                    join(line);
+                } else {
+                    if (line.startsWith("DISPLAY")) {
+                        name = line.substring(8);
+                        if (entry != null) {
+                            entry.setName(RED, name);
+                        }
+                    }
+                    if (early.size() < MAX_EARLY_LINES) {
+                        early.add(line);
+                    }
+                    enter(QUICK);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+
+        /**
+         * Choose how the client is seated, on its first line
+         * @param chosen LOBBY, or QUICK to ask for a quick match
+         */
+        private void enter(int chosen) {
+            if (path == NEW) {
+                path = chosen;
+                if (chosen == QUICK) {
+                    requests.add(() -> quickMatch(this));
+                }
+            }
+        }
+
+
+        /**
+         * Ask for a new game, on the board named by the command or on the
+         * default one
+         * @param line CREATE, or CREATE rows columns win
+         */
+        private void create(String line) {
+            String[] tokens = line.trim().split("\\s+");
+            Connect4Geometry board;
+            try {
+                if (tokens.length == 1) {
+                    board = geometry;
+                } else if (tokens.length == 4) {
+                    board = Connect4Geometry.of(Integer.parseInt(tokens[1]),
+                                                Integer.parseInt(tokens[2]),
+                                                Integer.parseInt(tokens[3]));
+                } else {
+                    throw new IllegalArgumentException("Usage: CREATE [rows columns win]");
+                }
+            } catch (IllegalArgumentException e) {
+                connection.send("ERROR " + e.getMessage());
+                return;
+            }
+            requests.add(() -> Connect4Matchmaker.this.create(this, board));
+        }
+
+
+        /**
+         * Ask to join a game of the lobby
+         * @param line JOIN id
+         */
+        private void join(String line) {
+            String[] tokens = line.trim().split("\\s+");
+            long id;
+            try {
+                id = Long.parseLong(tokens[1]);
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                connection.send("ERROR Usage: JOIN id");
+                return;
+            }
+            requests.add(() -> Connect4Matchmaker.this.join(this, id));
+        }
+
+
+        /**
+         * Tell the handler the client left, or close the game it waits in
+         */
+        @Override
+        public void disconnected() {
+            lock.lock();
+            try {
+                gone = true;
+                if (handler != null) {
+                    handler.disconnected();
+                } else {
+                    requests.add(() -> leave(this));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+}
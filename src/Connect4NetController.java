@@ -127,6 +127,26 @@ public class Connect4NetController extends Connect4Controller implements Runnabl
     }
 
 
+    /**
+     * Handle the board size chosen by the server and rebuild the
+     * game board to match it
+     * @param rows the number of rows in the game
+     * @param columns the number of columns in the game
+     */
+    public void handleBoardSize(int rows, int columns) {
+        if (rows == getRows() && columns == getColumns()) {
+            return;
+        }
+        setBoardSize(rows, columns);
+        Platform.runLater(new Runnable() {
+            public void run() {
+                view.setUIScene();
+                setLabel(mark, getPlayer());
+            }
+        });
+    }
+
+
     /**
      * Send a message to the server to request a move
      * @param col the column position to move to
@@ -284,6 +304,9 @@ public class Connect4NetController extends Connect4Controller implements Runnabl
                 } else if (tokens[0].equals("NAME")) {
                     opponentName = tokens[1];
                     setLabel(getOpponentMark(), getOpponent());
+                } else if (tokens[0].equals("BOARD")) {
+                    handleBoardSize(Integer.parseInt(tokens[1]),
+                                    Integer.parseInt(tokens[2]));
                 } else if (tokens[0].equals("DISCONNECT")) {
                     handleStateChange("Opponent disconnected");
                 }
@@ -1,26 +1,107 @@
 /**
  * Connect4NetworkGame.java
- * ClientHandler inner class that is threaded
+ * ClientHandler inner class that plays the protocol with one client
+ * over a Connect4Connection
+ *
+ * Every change to a game is an event on its queue: moves, rematch
+ * votes, names and disconnects. The handlers of the two clients only
+ * queue events, from whatever thread reads their connection, and one
+ * worker at a time runs them, in the order they were queued, so the
+ * game needs no lock. Games share a pool of workers: a game holds one
+ * only while it has events to run, and hands it back after a batch so
+ * a busy game cannot starve the others. Sending to a client never
+ * blocks, so a client that stops reading cannot hold up a worker. The
+ * events also keep the entry of the game in the lobby registry up to
+ * date.
 */
 
-import java.lang.Thread;
-import java.net.Socket;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class Connect4NetGame {
 
+    private static final int EVENT_BATCH = 64;
+
     private Connect4Logic game;
+    private volatile Connect4Position position;
+    private Executor workers;
+    private Connect4GameRegistry.Entry entry;
+    private Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private AtomicBoolean scheduled = new AtomicBoolean();
 
     /**
      * Constructor for the Connect4NetGame object
      * @param game the Connect4Logic object used in this game
+     * @param workers the pool running the events of the game
+     * @param entry the entry of the game in the registry
      */
-    public Connect4NetGame(Connect4Logic game) {
+    public Connect4NetGame(Connect4Logic game, Executor workers,
+                           Connect4GameRegistry.Entry entry) {
         this.game = game;
+        this.workers = workers;
+        this.entry = entry;
+        this.position = game.snapshot();
+    }
+
+
+    /**
+     * Get the latest position of the game. A new snapshot is published
+     * after every change to the game, so spectators, loggers and
+     * analysis threads can call this from any thread without locking.
+     * @return the snapshot of the position
+     */
+    public Connect4Position getPosition() {
+        return position;
+    }
+
+
+    /**
+     * Publish a snapshot of the game, called by the event changing it
+     */
+    private void publishPosition() {
+        position = game.snapshot();
+    }
+
+
+    /**
+     * Queue an event, and give the game a worker if it has none
+     * @param event the change to the game
+     */
+    private void post(Runnable event) {
+        events.add(event);
+        if (scheduled.compareAndSet(false, true)) {
+            workers.execute(this::runEvents);
+        }
+    }
+
+
+    /**
+     * Run queued events on the worker of the game, until the queue is
+     * empty or a batch is done
+     */
+    private void runEvents() {
+        do {
+            for (int i = 0; i < EVENT_BATCH; i++) {
+                Runnable event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    System.out.println(e);
+                }
+            }
+            if (!events.isEmpty()) {
+                // still scheduled: queue behind the other games
+                workers.execute(this::runEvents);
+                return;
+            }
+            scheduled.set(false);
+        } while (!events.isEmpty() && scheduled.compareAndSet(false, true));
     }
 
     
@@ -40,45 +121,37 @@ public class Connect4NetGame {
 
 
     /**
-     * Inner class that is threaded
+     * Inner class handling the messages of one player
      * An inner class makes sense here because it needs access to the
      * instance variables of Connect4NetGame
      */
-    public class ClientHandler extends Thread {
+    public class ClientHandler implements Connect4Connection.Listener {
 
         private char mark;
-        private BufferedReader in;
-        private PrintWriter out;
-        private Socket socket;
+        private Connect4Connection connection;
         private ClientHandler opponent;
         private int rematch_counter = 1;
 
 
         /** 
          * Constructor for the ClientHandler object
-         * @param socket the Socket object to communicate with
+         * @param connection the connection to communicate with
          * @param mark the player mark assigned to this client
          */
-        public ClientHandler(Socket socket, char mark) {
-            this.socket = socket;
+        public ClientHandler(Connect4Connection connection, char mark) {
+            this.connection = connection;
             this.mark = mark;
 
-            try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
-                out.println("WELCOME " + mark);
-                out.println("MESSAGE Waiting for other player to connect");
-                updateClientIndicator();
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
-            }
-
+            connection.send("WELCOME " + mark);
+            connection.send("BOARD " + game.getRows() + " " + game.getColumns()
+                            + " " + game.getWin());
+            updateClientIndicator();
         }
 
 
         /**
-         * Set the thread of the opponent
-         * @param opponent the opponent thread
+         * Set the handler of the opponent
+         * @param opponent the opponent handler
          */
         public void setOpponent(ClientHandler opponent) {
             this.opponent = opponent;
@@ -91,7 +164,7 @@ public class Connect4NetGame {
          */
 
         public void connectionLoss() {
-            out.println("DISCONNECT");
+            connection.send("DISCONNECT");
         }
 
 
@@ -100,7 +173,7 @@ public class Connect4NetGame {
          * to set the move indicator
          */
         public void updateClientIndicator() {
-            out.println("SET " + game.getCurrentMove());
+            connection.send("SET " + game.getCurrentMove());
         }
 
 
@@ -111,9 +184,9 @@ public class Connect4NetGame {
          * @param row the row position that the opponent moved to
          */
         public void opponentMoved(int col, int row) {
-            out.println("OPPONENT_MOVED" + " " + col + " " + row);
+            connection.send("OPPONENT_MOVED" + " " + col + " " + row);
             String result = game.isWin() ? "DEFEAT" : game.isDraw() ? "DRAW" : "";
-            out.println(result);
+            connection.send(result);
         }
 
 
@@ -121,7 +194,7 @@ public class Connect4NetGame {
          * Send the rematch string
          */
         public void sendRematch() {
-            out.println("MESSAGE Your opponent wants a rematch. Press 'play again' to accept");
+            connection.send("MESSAGE Your opponent wants a rematch. Press 'play again' to accept");
         }
 
 
@@ -130,7 +203,7 @@ public class Connect4NetGame {
          * @param name the name of the opponent
          */ 
         public void setOpponentName(String name) {
-            out.println("NAME " + name);
+            connection.send("NAME " + name);
         }
 
 
@@ -139,84 +212,103 @@ public class Connect4NetGame {
          * @param mark the new first move mark
          */
         public void resetGame(char mark){
-            out.println("NEW_GAME " + mark);
+            connection.send("NEW_GAME " + mark);
         }
 
 
         /** 
-         * The Thread run method
+         * Tell the client the game begins. Its messages are handed to
+         * the handler by whoever owns its connection, as they arrive.
          */
-        public void run() {
-            try {
-                out.println("MESSAGE Players have connected, the game will begin now");
-                if (mark == game.getCurrentMove()) {
-                    out.println("MESSAGE It it your turn");
-                }
+        public void start() {
+            connection.send("MESSAGE Players have connected, the game will begin now");
+            if (mark == game.getCurrentMove()) {
+                connection.send("MESSAGE It it your turn");
+            }
+        }
+
+
+        /**
+         * Tell the opponent the client left
+         */
+        @Override
+        public void disconnected() {
+            post(() -> {
+                entry.remove();
+                opponent.connectionLoss();
+            });
+        }
+
+
+        /**
+         * Handle one message of the client by queueing its event
+         * @param clientMessage the message
+         */
+        @Override
+        public void received(String clientMessage) {
+            if (clientMessage.startsWith("MOVE")) {
+                int column = Integer.parseInt(clientMessage.substring(5));
+                post(() -> move(column));
+            } else if (clientMessage.startsWith("QUIT")) {
+                post(entry::remove);
+                connection.close();
+            } else if (clientMessage.startsWith("REMATCH_PLS")) {
+                post(this::rematch);
+            } else if (clientMessage.startsWith("DISPLAY")) {
+                String name = clientMessage.substring(8);
+                post(() -> {
+                    entry.setName(mark, name);
+                    opponent.setOpponentName(name);
+                });
+            }
+        }
+
 
-                while (true) {
-                    String clientMessage = in.readLine();
-                    
-                    if (clientMessage == null) {
-                        opponent.connectionLoss();
-                        return;
-                    }
-
-                    if (clientMessage.startsWith("MOVE")) {
-
-                        int column = Integer.parseInt(clientMessage.substring(5));
-                        synchronized(this) {
-                            if (isValidMove(mark, column)) {
-                                int row = game.makeMove(column);
-                                out.println("VALID_MOVE " + column + " " + row);
-                                opponent.opponentMoved(column, row);
-                                if (game.isWin()) {
-                                    out.println("VICTORY");
-                                } else if (game.isDraw()) {
-                                    out.println("DRAW");
-                                } else {
-                                    game.switchTurns();
-                                    updateClientIndicator();
-                                    opponent.updateClientIndicator();
-                                }
-
-                            }
-                        }
-                        
-                    } else if (clientMessage.startsWith("QUIT")) {
-                        
-                        return;
-
-                    } else if (clientMessage.startsWith("REMATCH_PLS")) {
-                        
-                        synchronized(this) {
-                            game.incRematch();
-                            if (game.getRematchCount() == 1){                               
-                                opponent.sendRematch();
-                            }
-                            else if(game.getRematchCount() == 2){
-                                game.resetRematch();
-                                game.reset();
-                                char firstMove = game.getCurrentMove();
-                                resetGame(firstMove);
-                                opponent.resetGame(firstMove);
-                            }
-                            
-                        }
-
-                    } else if (clientMessage.startsWith("DISPLAY")) {
-                        String name = clientMessage.substring(8);
-                        opponent.setOpponentName(name);
-                    }
+        /**
+         * Play a move of the client if it is its turn and the column is
+         * open, and tell both clients
+         * @param column the column of the move
+         */
+        private void move(int column) {
+            if (isValidMove(mark, column)) {
+                int row = game.makeMove(column);
+                connection.send("VALID_MOVE " + column + " " + row);
+                opponent.opponentMoved(column, row);
+                if (game.isWin()) {
+                    connection.send("VICTORY");
+                    entry.setState(Connect4GameRegistry.OVER);
+                } else if (game.isDraw()) {
+                    connection.send("DRAW");
+                    entry.setState(Connect4GameRegistry.OVER);
+                } else {
+                    game.switchTurns();
+                    updateClientIndicator();
+                    opponent.updateClientIndicator();
                 }
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
-            } finally {
-                try {
-                    socket.close();
-                } catch (IOException e) {}
+                publishPosition();
+            }
+        }
+
+
+        /**
+         * Count the client's vote for a rematch, and start the new game
+         * once both clients voted
+         */
+        private void rematch() {
+            game.incRematch();
+            if (game.getRematchCount() == 1) {
+                opponent.sendRematch();
+            } else if (game.getRematchCount() == 2) {
+                game.resetRematch();
+                game.reset();
+                publishPosition();
+                entry.setState(Connect4GameRegistry.PLAYING);
+                char firstMove = game.getCurrentMove();
+                resetGame(firstMove);
+                opponent.resetGame(firstMove);
             }
         }
 
     }
 
-}
\ No newline at end of file
+}
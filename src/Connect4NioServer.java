@@ -0,0 +1,391 @@
+/**
+ * Connect4NioServer.java
+ * serves connections with non-blocking channels and a few event loops
+ * instead of a thread per client. Each loop owns a Selector and the
+ * connections registered with it; the first loop also accepts new
+ * clients and spreads them over the loops in turn.
+ *
+ * A connection keeps a small read buffer and cuts the lines out of it
+ * itself, so an idle client costs a few hundred bytes rather than a
+ * thread. Listeners are called on the loop of their connection and must
+ * not block it. send writes straight to the channel when nothing is
+ * queued, and queues what the socket does not take for its loop to
+ * write when the channel is writable again; a client that lets too much
+ * pile up is disconnected.
+ *
+ * A connection that fails, whether its client left, a read or write
+ * failed or the client sent or left unread too much, is closed and its
+ * listener told once, on its loop. Only a close asked for through close
+ * goes untold.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+
+public class Connect4NioServer {
+
+    private static final int READ_BUFFER_BYTES = 512;
+    private static final int MAX_PENDING_BYTES = 1 << 16;
+
+    private ServerSocketChannel listener;
+    private EventLoop[] loops;
+    private Consumer<Connect4Connection> acceptor;
+    private int next;
+
+
+    /**
+     * Constructor for the Connect4NioServer object
+     * @param port the port to listen on
+     * @param threads the number of event loops
+     * @param acceptor called on the accepting loop with every new
+     * connection; it must not block
+     * @throws IOException if the port cannot be bound
+     */
+    public Connect4NioServer(int port, int threads, Consumer<Connect4Connection> acceptor)
+        throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.acceptor = acceptor;
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop();
+        }
+        this.listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port), Connect4Server.BACKLOG);
+        listener.configureBlocking(false);
+        listener.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+
+    /**
+     * Run the event loops, the first one in the calling thread. Never
+     * returns unless a selector fails.
+     * @throws IOException if a selector fails
+     */
+    public void run() throws IOException {
+        for (int i = 1; i < loops.length; i++) {
+            EventLoop loop = loops[i];
+            Thread thread = new Thread(() -> {
+                try {
+                    loop.run();
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            }, "event-loop-" + i);
+            thread.start();
+        }
+        loops[0].run();
+    }
+
+
+    /**
+     * Accept the clients waiting on the listening channel
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+                if (channel == null) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ce) {}
+                continue;
+            }
+            Connection connection = new Connection(channel, loops[next]);
+            next = (next + 1) % loops.length;
+            acceptor.accept(connection);
+        }
+    }
+
+
+    /**
+     * A selector and the thread that waits on it
+     */
+    private class EventLoop {
+
+        private Selector selector;
+        private Queue<Runnable> tasks;
+
+
+        /**
+         * Constructor for the EventLoop object
+         * @throws IOException if the selector cannot be opened
+         */
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+
+        /**
+         * Run a task on the thread of the loop, after the events it is
+         * handling now
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+
+        /**
+         * Wait for events and handle them
+         * @throws IOException if the selector fails
+         */
+        void run() throws IOException {
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (RuntimeException e) {
+                        System.out.println(e);
+                        connection.drop();
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A client registered with one of the event loops
+     */
+    private class Connection implements Connect4Connection {
+
+        private SocketChannel channel;
+        private EventLoop loop;
+        private SelectionKey key;
+        private ByteBuffer input;
+        private Queue<ByteBuffer> output;
+        private int pending;
+        private Listener listener;
+        private AtomicBoolean closed = new AtomicBoolean();
+        // only touched by the loop: the connection failed before it was opened
+        private boolean lost;
+
+
+        /**
+         * Constructor for the Connection object, registering the channel
+         * with its loop without reading from it yet
+         * @param channel the channel of the client, in non-blocking mode
+         * @param loop the loop serving the connection
+         */
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.input = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            this.output = new ArrayDeque<>();
+            loop.execute(() -> {
+                try {
+                    key = channel.register(loop.selector, 0, this);
+                } catch (IOException e) {
+                    drop();
+                }
+            });
+        }
+
+
+        /**
+         * Start reading the lines of the client
+         * @param listener the listener of the connection
+         */
+        @Override
+        public void open(Listener listener) {
+            loop.execute(() -> {
+                this.listener = listener;
+                if (lost) {
+                    listener.disconnected();
+                } else if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            });
+        }
+
+
+        /**
+         * Send one line to the client without blocking
+         * @param line the line, without its line terminator
+         */
+        @Override
+        public void send(String line) {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            synchronized (output) {
+                if (closed.get()) {
+                    return;
+                }
+                if (output.isEmpty()) {
+                    try {
+                        channel.write(bytes);
+                    } catch (IOException e) {
+                        drop();
+                        return;
+                    }
+                    if (!bytes.hasRemaining()) {
+                        return;
+                    }
+                    loop.execute(() -> setInterest(SelectionKey.OP_WRITE, true));
+                }
+                pending += bytes.remaining();
+                if (pending > MAX_PENDING_BYTES) {
+                    drop();
+                    return;
+                }
+                output.add(bytes);
+            }
+        }
+
+
+        /**
+         * Close the channel, which also removes it from its selector
+         */
+        @Override
+        public void close() {
+            closed.set(true);
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+
+
+        /**
+         * Close the connection after it failed, and tell the listener on
+         * the loop, unless the connection was already closed. May be
+         * called from any thread.
+         */
+        void drop() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {}
+            loop.execute(() -> {
+                lost = true;
+                if (listener != null) {
+                    listener.disconnected();
+                }
+            });
+        }
+
+
+        /**
+         * Turn one kind of event on or off for the connection, on the
+         * thread of its loop
+         * @param op the event
+         * @param on true to select it, false to stop selecting it
+         */
+        private void setInterest(int op, boolean on) {
+            if (key != null && key.isValid()) {
+                key.interestOps(on ? key.interestOps() | op : key.interestOps() & ~op);
+            }
+        }
+
+
+        /**
+         * Write as much of the queued output as the channel takes
+         */
+        void flush() {
+            synchronized (output) {
+                try {
+                    while (!output.isEmpty()) {
+                        ByteBuffer bytes = output.peek();
+                        pending -= channel.write(bytes);
+                        if (bytes.hasRemaining()) {
+                            return;
+                        }
+                        output.poll();
+                    }
+                } catch (IOException e) {
+                    drop();
+                    return;
+                }
+                setInterest(SelectionKey.OP_WRITE, false);
+            }
+        }
+
+
+        /**
+         * Read what the client sent and hand each complete line to the
+         * listener
+         */
+        void read() {
+            int read;
+            try {
+                read = channel.read(input);
+            } catch (IOException e) {
+                drop();
+                return;
+            }
+            if (read < 0) {
+                drop();
+                return;
+            }
+            byte[] bytes = input.array();
+            int length = input.position();
+            int start = 0;
+            for (int i = length - read; i < length && !closed.get(); i++) {
+                if (bytes[i] == '\n') {
+                    int end = (i > start && bytes[i - 1] == '\r') ? i - 1 : i;
+                    listener.received(new String(bytes, start, end - start,
+                                                 StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && length == bytes.length) {
+                // no line of the protocol is this long
+                drop();
+                return;
+            }
+            System.arraycopy(bytes, start, bytes, 0, length - start);
+            input.position(length - start);
+        }
+    }
+
+
+}
@@ -0,0 +1,362 @@
+/**
+ * Connect4Notation.java
+ * reads and writes games as move sequences: one character per disc,
+ * naming its column, so "4453" is a game where the first two discs went
+ * in the fourth column, then one in the fifth and one in the third.
+ * Columns are named 1 to 9, then a to w for boards wider than nine.
+ * A record file holds one game per line.
+ *
+ * Records are validated while they are replayed into a Connect4Logic
+ * owned by the notation object, and an invalid record is reported with
+ * the kind of error and the offset of the character at fault rather than
+ * with an exception, so a large collection can be checked in one pass.
+ * readRecords streams a file through a fixed buffer and allocates
+ * nothing per record; write puts a record into a buffer the caller
+ * reuses. A notation object is meant for one thread at a time.
+ *
+ * usage, to check a record file:
+ * java Connect4Notation <file> [rows columns win]
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+
+public class Connect4Notation {
+
+    public static final int VALID = 0;
+    public static final int INVALID_CHARACTER = 1;
+    public static final int INVALID_COLUMN = 2;
+    public static final int FULL_COLUMN = 3;
+    public static final int MOVE_AFTER_END = 4;
+
+    private static final String COLUMN_NAMES = "123456789abcdefghijklmnopqrstuvw";
+    private static final byte[] COLUMNS = new byte[128];
+    private static final String[] ERRORS = {
+        "valid", "invalid character", "invalid column", "full column", "move after the end"
+    };
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    static {
+        Arrays.fill(COLUMNS, (byte) -1);
+        for (int i = 0; i < COLUMN_NAMES.length(); i++) {
+            COLUMNS[COLUMN_NAMES.charAt(i)] = (byte) i;
+        }
+    }
+
+    private Connect4Logic game;
+    private int columns;
+    private boolean over;
+    private int error;
+    private int errorOffset;
+    private byte[] buffer;
+
+
+    /**
+     * Constructor for the notation of standard games
+     */
+    public Connect4Notation() {
+        this(Connect4Geometry.STANDARD);
+    }
+
+
+    /**
+     * Constructor for the Connect4Notation object
+     * @param geometry the board size and win length of the games
+     */
+    public Connect4Notation(Connect4Geometry geometry) {
+        this.game = new Connect4Logic(geometry);
+        this.columns = geometry.getColumns();
+    }
+
+
+    /**
+     * Main function of the record checker
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: java Connect4Notation <file> [rows columns win]");
+            return;
+        }
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            Connect4Geometry geometry = (args.length > 3)
+                ? Connect4Geometry.of(Integer.parseInt(args[1]),
+                                      Integer.parseInt(args[2]),
+                                      Integer.parseInt(args[3]))
+                : Connect4Geometry.STANDARD;
+            Connect4Notation notation = new Connect4Notation(geometry);
+            long[] invalid = new long[1];
+            long start = System.nanoTime();
+            long records = notation.readRecords(in, (line, n) -> {
+                if (n.getError() != VALID) {
+                    if (invalid[0]++ < 10) {
+                        System.out.println("line " + line + ", offset " + n.getErrorOffset()
+                                           + ": " + describe(n.getError()));
+                    }
+                }
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d records, %d invalid, %.0f records/s%n",
+                              records, invalid[0], records / seconds);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Describe an error code
+     * @param error the error code returned by replay or getError
+     * @return the description of the error
+     */
+    public static String describe(int error) {
+        return ERRORS[error];
+    }
+
+
+    /**
+     * Get the game the records are replayed into. It holds the position
+     * reached by the last record, up to its first error.
+     * @return the game logic owned by the notation
+     */
+    public Connect4Logic getGame() {
+        return game;
+    }
+
+
+    /**
+     * Get the error of the last record replayed
+     * @return VALID, or the kind of the first error in the record
+     */
+    public int getError() {
+        return error;
+    }
+
+
+    /**
+     * Get the offset of the first error of the last record replayed
+     * @return the offset of the character at fault from the start of
+     * the record, -1 if the record is valid
+     */
+    public int getErrorOffset() {
+        return errorOffset;
+    }
+
+
+    /**
+     * Replay a record from the start of a game
+     * @param record the move sequence
+     * @return VALID, or the kind of the first error in the record
+     */
+    public int replay(CharSequence record) {
+        begin();
+        int length = record.length();
+        for (int i = 0; i < length && error == VALID; i++) {
+            play(record.charAt(i), i);
+        }
+        return error;
+    }
+
+
+    /**
+     * Replay a record from the start of a game
+     * @param bytes the buffer holding the record as ASCII
+     * @param from the index of the first character of the record
+     * @param to the index after the last character of the record
+     * @return VALID, or the kind of the first error in the record
+     */
+    public int replay(byte[] bytes, int from, int to) {
+        begin();
+        for (int i = from; i < to && error == VALID; i++) {
+            play(bytes[i], i - from);
+        }
+        return error;
+    }
+
+
+    /**
+     * Start replaying a record
+     */
+    private void begin() {
+        game.reset();
+        over = false;
+        error = VALID;
+        errorOffset = -1;
+    }
+
+
+    /**
+     * Play one character of a record, or record why it cannot be played
+     * @param symbol the character
+     * @param offset the offset of the character in the record
+     */
+    private void play(int symbol, int offset) {
+        int col = (symbol >= 0 && symbol < COLUMNS.length) ? COLUMNS[symbol] : -1;
+        if (col < 0) {
+            fail(INVALID_CHARACTER, offset);
+        } else if (col >= columns) {
+            fail(INVALID_COLUMN, offset);
+        } else if (over) {
+            fail(MOVE_AFTER_END, offset);
+        } else if (!game.verifyMove(col)) {
+            fail(FULL_COLUMN, offset);
+        } else {
+            game.makeMove(col);
+            if (game.isWin() || game.isDraw()) {
+                over = true;
+            } else {
+                game.switchTurns();
+            }
+        }
+    }
+
+
+    /**
+     * Record the first error of a record
+     * @param error the kind of error
+     * @param offset the offset of the character at fault
+     */
+    private void fail(int error, int offset) {
+        this.error = error;
+        this.errorOffset = offset;
+    }
+
+
+    /**
+     * Read a stream of records, one per line, replaying each one and
+     * handing it to a listener. Lines may end in \n or \r\n. Empty
+     * lines are skipped, and neither handed on nor counted.
+     * @param in the stream of records
+     * @param listener the listener called once per record, while the
+     * notation holds its result and final position
+     * @return the number of records read
+     * @throws IOException if the stream cannot be read
+     */
+    public long readRecords(InputStream in, RecordListener listener) throws IOException {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_BYTES];
+        }
+        long records = 0;
+        int length = 0;
+        boolean skipping = false;
+        while (true) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            int scanned = length;
+            length += read;
+            int start = 0;
+            for (int i = scanned; i < length; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                if (!skipping && replayLine(start, i)) {
+                    listener.record(records++, this);
+                }
+                skipping = false;
+                start = i + 1;
+            }
+            if (start == 0 && length == buffer.length) {
+                // a line longer than the buffer is longer than any valid
+                // record, so its start is enough to find its error
+                if (!skipping && replayLine(0, length)) {
+                    listener.record(records++, this);
+                }
+                skipping = true;
+                length = 0;
+            } else {
+                System.arraycopy(buffer, start, buffer, 0, length - start);
+                length -= start;
+            }
+        }
+        if (length > 0 && !skipping && replayLine(0, length)) {
+            listener.record(records++, this);
+        }
+        return records;
+    }
+
+
+    /**
+     * Replay one line of the buffer, without its line terminator
+     * @param from the index of the first character of the line
+     * @param to the index of the line terminator
+     * @return false if the line is empty and was not replayed
+     */
+    private boolean replayLine(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        if (to == from) {
+            return false;
+        }
+        replay(buffer, from, to);
+        return true;
+    }
+
+
+    /**
+     * Write the moves of a game as a record
+     * @param game the game to write
+     * @param bytes the buffer to write into, at least as long as the
+     * number of moves from the offset on
+     * @param offset the index of the first character to write
+     * @return the index after the last character written
+     */
+    public static int write(Connect4Logic game, byte[] bytes, int offset) {
+        int moves = game.getMoveCount();
+        for (int i = 0; i < moves; i++) {
+            bytes[offset++] = (byte) COLUMN_NAMES.charAt(game.getMove(i));
+        }
+        return offset;
+    }
+
+
+    /**
+     * Append the moves of a game as a record
+     * @param game the game to write
+     * @param out the builder to append to
+     * @return the builder
+     */
+    public static StringBuilder write(Connect4Logic game, StringBuilder out) {
+        int moves = game.getMoveCount();
+        for (int i = 0; i < moves; i++) {
+            out.append(COLUMN_NAMES.charAt(game.getMove(i)));
+        }
+        return out;
+    }
+
+
+    /**
+     * Write the moves of a game as a record
+     * @param game the game to write
+     * @return the record
+     */
+    public static String toRecord(Connect4Logic game) {
+        return write(game, new StringBuilder(game.getMoveCount())).toString();
+    }
+
+
+    /**
+     * Receives the records read by readRecords
+     */
+    public interface RecordListener {
+
+
+        /**
+         * Handle one record
+         * @param index the number of records read before this one, which
+         * is also its line number counted from 0
+         * @param notation the notation, holding the error and final
+         * position of the record
+         */
+        void record(long index, Connect4Notation notation);
+    }
+
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Connect4OpeningBook.java
+ * read-only opening book of exact scores, memory mapped from a file
+ * written by Connect4BookGenerator.
+ *
+ * File layout, big-endian:
+ *   int    magic "C4BK"
+ *   int    rows
+ *   int    columns
+ *   int    win length
+ *   int    plies, the deepest position stored
+ *   int    number of records
+ *   record { long canonical position code; byte score } sorted by code,
+ *          compared as unsigned numbers
+ *
+ * Lookups are binary searches on the mapped file, so opening a book
+ * neither parses it nor copies it onto the heap, and every process that
+ * opens the same book shares its pages.
+ *
+ * The book of the standard board up to two plies is built in, since
+ * even the empty board takes minutes to search: standard() lays out
+ * its records, as written by java Connect4BookGenerator 2 <file>, in
+ * the same layout on the heap.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class Connect4OpeningBook {
+
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    static final int MAGIC = 0x4334424B;
+    static final int HEADER_BYTES = 6 * Integer.BYTES;
+    static final int RECORD_BYTES = Long.BYTES + 1;
+
+    private static final int STANDARD_PLIES = 2;
+    private static final long[] STANDARD_CODES = {
+        0x40810204081L, 0x40810204082L, 0x40810204085L, 0x40810204101L,
+        0x40810204103L, 0x40810204182L, 0x40810204281L, 0x40810208081L,
+        0x40810208083L, 0x40810208181L, 0x4081020C082L, 0x4081020C101L,
+        0x40810214081L, 0x40810404081L, 0x40810404083L, 0x40810404181L,
+        0x4081040C081L, 0x40810604082L, 0x40810604101L, 0x40810608081L,
+        0x40810A04081L, 0x40820204083L, 0x40820204181L, 0x4082020C081L,
+        0x40830204082L, 0x40830204101L, 0x41010204083L, 0x41010204181L,
+        0x41810204082L, 0x80810204083L
+    };
+    private static final byte[] STANDARD_SCORES = {
+        1, 2, 1, 1, -2, 2, 0, 0, -1, -1, 2, 2, 0, -1, -2,
+        0, 0, 4, 2, 2, 1, 1, 2, 0, 3, 0, -1, 2, 3, 2
+    };
+    private static final Connect4OpeningBook STANDARD = buildStandard();
+
+    private ByteBuffer buffer;
+    private int rows;
+    private int columns;
+    private int win;
+    private int plies;
+    private int count;
+
+
+    /**
+     * Constructor for the Connect4OpeningBook object
+     * @param buffer the contents of a book file
+     * @throws IOException if the contents are not an opening book
+     */
+    private Connect4OpeningBook(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an opening book");
+        }
+        rows = buffer.getInt(4);
+        columns = buffer.getInt(8);
+        win = buffer.getInt(12);
+        plies = buffer.getInt(16);
+        count = buffer.getInt(20);
+        if (buffer.capacity() != HEADER_BYTES + (long) count * RECORD_BYTES) {
+            throw new IOException("Truncated opening book");
+        }
+    }
+
+
+    /**
+     * Map an opening book file
+     * @param path the location of the book
+     * @return the opening book
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static Connect4OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Connect4OpeningBook(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+
+    /**
+     * Get the book built into the class, for the standard board
+     * @return the scores of every position of the standard board up to
+     * two plies
+     */
+    public static Connect4OpeningBook standard() {
+        return STANDARD;
+    }
+
+
+    /**
+     * Lay out the records of the built-in book as a book file would
+     * hold them
+     * @return the built-in book
+     */
+    private static Connect4OpeningBook buildStandard() {
+        Connect4Geometry geometry = Connect4Geometry.STANDARD;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES
+                                                + STANDARD_CODES.length * RECORD_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(geometry.getRows());
+        buffer.putInt(geometry.getColumns());
+        buffer.putInt(geometry.getWin());
+        buffer.putInt(STANDARD_PLIES);
+        buffer.putInt(STANDARD_CODES.length);
+        for (int i = 0; i < STANDARD_CODES.length; i++) {
+            buffer.putLong(STANDARD_CODES[i]);
+            buffer.put(STANDARD_SCORES[i]);
+        }
+        try {
+            return new Connect4OpeningBook(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Get the deepest position stored in the book
+     * @return the number of discs of the deepest positions
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+
+    /**
+     * Get the number of positions in the book
+     * @return the number of records
+     */
+    public int size() {
+        return count;
+    }
+
+
+    /**
+     * Look up the exact score of a position
+     * @param game the position, with currentMove to play
+     * @return the score of the position, or NOT_FOUND if the book does
+     * not contain it
+     */
+    public int getScore(Connect4Logic game) {
+        if (game.getMoveCount() > plies
+            || game.getRows() != rows
+            || game.getColumns() != columns
+            || game.getWin() != win) {
+            return NOT_FOUND;
+        }
+        long code = game.getCanonicalPositionCode();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long offset = HEADER_BYTES + (long) mid * RECORD_BYTES;
+            int order = Long.compareUnsigned(buffer.getLong((int) offset), code);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return buffer.get((int) offset + Long.BYTES);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+
+}
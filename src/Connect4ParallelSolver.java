@@ -0,0 +1,316 @@
+/**
+ * Connect4ParallelSolver.java
+ * spreads the search of one position across several threads.
+ * The top plies of the tree are split with young brothers wait:
+ * the first move of a node is searched alone to tighten the window,
+ * then its brothers are searched in parallel on a fork/join pool.
+ * Below the split depth each subtree is searched by a Connect4Solver
+ * owned by the worker thread, so the score is exactly the one the
+ * single-threaded solver returns. All the worker solvers share one
+ * transposition table, so work done by one thread is reused by the others.
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class Connect4ParallelSolver {
+
+    private static final int DEFAULT_SPLIT_DEPTH = 2;
+    private static final int MIN_SPLIT_CELLS = 12;
+
+    private ForkJoinPool pool;
+    private Connect4TranspositionTable table;
+    private Connect4OpeningBook book;
+    private Connect4Tablebase tablebase;
+    private int ordering = Connect4Solver.ORDER_THREATS;
+    private int splitDepth;
+    private int[] columnOrder;
+    private int cells;
+    private LongAdder nodes;
+    private AtomicReference<Connect4SearchStats> stats;
+    private ThreadLocal<Connect4Solver> solvers;
+
+
+    /**
+     * Constructor for a parallel solver using every available core
+     */
+    public Connect4ParallelSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Constructor for a parallel solver
+     * @param threads the number of search threads
+     */
+    public Connect4ParallelSolver(int threads) {
+        this(threads, DEFAULT_SPLIT_DEPTH);
+    }
+
+
+    /**
+     * Constructor for a parallel solver with its own transposition table
+     * and the built-in opening book of the standard board
+     * @param threads the number of search threads
+     * @param splitDepth the number of plies below the root that are
+     * split between threads
+     */
+    public Connect4ParallelSolver(int threads, int splitDepth) {
+        this(threads, splitDepth,
+             new Connect4TranspositionTable(Connect4Solver.DEFAULT_TABLE_BYTES));
+        book = Connect4OpeningBook.standard();
+    }
+
+
+    /**
+     * Constructor for a parallel solver
+     * @param threads the number of search threads
+     * @param splitDepth the number of plies below the root that are
+     * split between threads
+     * @param table the transposition table shared by the search threads
+     */
+    public Connect4ParallelSolver(int threads, int splitDepth,
+                                  Connect4TranspositionTable table) {
+        if (threads < 1 || splitDepth < 0) {
+            throw new IllegalArgumentException("Invalid thread count or split depth");
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.splitDepth = splitDepth;
+        this.nodes = new LongAdder();
+        this.stats = new AtomicReference<Connect4SearchStats>();
+        this.table = table;
+        this.solvers = ThreadLocal.withInitial(() -> new Connect4Solver(table));
+    }
+
+
+    /**
+     * Get the number of search threads
+     * @return the number of search threads
+     */
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+
+    /**
+     * Get the transposition table shared by the search threads
+     * @return the shared table
+     */
+    public Connect4TranspositionTable getTable() {
+        return table;
+    }
+
+
+    /**
+     * Use an opening book to answer positions without searching them
+     * @param book the opening book, or null to search every position
+     */
+    public void setOpeningBook(Connect4OpeningBook book) {
+        this.book = book;
+    }
+
+
+    /**
+     * Use an endgame tablebase to bound the score of late positions
+     * @param tablebase the tablebase, or null to search every position
+     */
+    public void setTablebase(Connect4Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+
+    /**
+     * Choose the heuristics the search threads order moves with
+     * @param ordering a combination of the Connect4Solver.ORDER_ flags
+     */
+    public void setMoveOrdering(int ordering) {
+        this.ordering = ordering;
+    }
+
+
+    /**
+     * Solve a position. The game object is copied and left untouched.
+     * @param game the position to solve, with currentMove to play
+     * @return the result of the search
+     * @throws IllegalArgumentException if the game already has a winner
+     */
+    public Connect4Solver.Result solve(Connect4Logic game) {
+        if (game.isLastMoveWin()) {
+            throw new IllegalArgumentException("The game already has a winner");
+        }
+        cells = game.getRows() * game.getColumns();
+        columnOrder = Connect4Solver.centerFirstOrder(game.getColumns());
+        nodes.reset();
+        stats.set(Connect4SearchStats.EMPTY);
+        table.newSearch();
+
+        long start = System.nanoTime();
+        int moves = game.getMoveCount();
+        int score;
+        if (game.isDraw()) {
+            score = 0;
+        } else if (game.canWinNext()) {
+            score = (cells + 1 - moves) / 2;
+        } else if (book != null
+                   && book.getScore(game) != Connect4OpeningBook.NOT_FOUND) {
+            score = book.getScore(game);
+        } else {
+            int min = -(cells - moves) / 2;
+            int max = (cells + 1 - moves) / 2;
+            while (min < max) {
+                int med = Connect4Solver.nextProbe(min, max);
+                int probe = pool.invoke(new SearchTask(new Connect4Logic(game),
+                                                       med, med + 1, 0));
+                if (probe <= med) {
+                    max = probe;
+                } else {
+                    min = probe;
+                }
+            }
+            score = min;
+        }
+        Connect4SearchStats splits = new Connect4SearchStats(nodes.sum(), 0, 0, 0, 0);
+        return new Connect4Solver.Result(score, moves, cells, stats.get().plus(splits),
+                                         System.nanoTime() - start);
+    }
+
+
+    /**
+     * Stop the search threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+
+    /**
+     * The search of one node of the tree
+     */
+    private class SearchTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient Connect4Logic game;
+        private int alpha;
+        private int beta;
+        private int ply;
+
+
+        /**
+         * Constructor for the SearchTask object
+         * @param game the position to search, owned by this task
+         * @param alpha the lower bound of the search window
+         * @param beta the upper bound of the search window
+         * @param ply the distance from the root of the search
+         */
+        public SearchTask(Connect4Logic game, int alpha, int beta, int ply) {
+            this.game = game;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.ply = ply;
+        }
+
+
+        /**
+         * Search the node, splitting it between threads if it is
+         * close enough to the root
+         * @return the score or a bound on it, as for negamax
+         */
+        @Override
+        protected Integer compute() {
+            int moves = game.getMoveCount();
+            if (ply >= splitDepth || cells - moves <= MIN_SPLIT_CELLS) {
+                Connect4Solver solver = solvers.get();
+                solver.setOpeningBook(book);
+                solver.setTablebase(tablebase);
+                solver.setMoveOrdering(ordering);
+                int score = solver.search(game, alpha, beta);
+                stats.accumulateAndGet(solver.getStats(), Connect4SearchStats::plus);
+                return score;
+            }
+
+            nodes.increment();
+            long next = game.getNonLosingMoves();
+            if (next == 0) {
+                return Connect4Solver.lossScore(cells, moves);
+            }
+            if (moves >= cells - 2) {
+                return 0;
+            }
+            int min = Connect4Solver.minScore(cells, moves);
+            if (alpha < min) {
+                alpha = min;
+                if (alpha >= beta) {
+                    return alpha;
+                }
+            }
+            int max = Connect4Solver.maxScore(cells, moves);
+            if (beta > max) {
+                beta = max;
+                if (alpha >= beta) {
+                    return beta;
+                }
+            }
+
+            List<SearchTask> brothers = new ArrayList<SearchTask>();
+            boolean eldest = true;
+            for (int i = 0; i < columnOrder.length; i++) {
+                int col = columnOrder[i];
+                if ((next & game.getColumnMask(col)) == 0) {
+                    continue;
+                }
+                Connect4Logic child = new Connect4Logic(game);
+                child.makeMove(col);
+                child.switchTurns();
+                SearchTask task = new SearchTask(child, -beta, -alpha, ply + 1);
+                if (eldest) {
+                    eldest = false;
+                    int score = -task.compute();
+                    if (score >= beta) {
+                        return score;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                    }
+                } else {
+                    brothers.add(task);
+                }
+            }
+
+            for (int i = brothers.size() - 1; i >= 0; i--) {
+                brothers.get(i).fork();
+            }
+            for (int i = 0; i < brothers.size(); i++) {
+                int score = -brothers.get(i).join();
+                if (score >= beta) {
+                    cancel(brothers, i + 1);
+                    return score;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+            }
+            return alpha;
+        }
+
+
+        /**
+         * Cancel the brothers that have not been started yet after a cutoff
+         * @param brothers the forked brothers
+         * @param from the index of the first brother to cancel
+         */
+        private void cancel(List<SearchTask> brothers, int from) {
+            for (int i = from; i < brothers.size(); i++) {
+                brothers.get(i).cancel(false);
+            }
+        }
+    }
+
+
+}
@@ -0,0 +1,18 @@
+/**
+ * Connect4Player.java
+ * a computer player that picks moves for the player
+ * represented by currentMove.
+ */
+
+
+public interface Connect4Player {
+
+
+    /**
+     * Choose a move. The game object is left as it was found.
+     * @param game the position, with currentMove to play; the game must
+     * not be over
+     * @return the column to play
+     */
+    int chooseMove(Connect4Logic game);
+}
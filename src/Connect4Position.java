@@ -0,0 +1,223 @@
+/**
+ * Connect4Position.java
+ * immutable snapshot of a game position, taken with
+ * Connect4Logic.snapshot(). It holds the discs of both players as
+ * bitboards, the player to move and the number of discs, so it is a few
+ * words to create and can be handed to any thread without locks: a
+ * snapshot never changes once it has been taken, and its fields are
+ * final, so every thread that gets a reference sees the whole position.
+ *
+ * Snapshots are values: two snapshots of the same position with the same
+ * player to move are equal, however they were reached.
+ */
+
+
+public final class Connect4Position {
+
+    public static final char EMPTY = 'e';
+    public static final char RED = 'r';
+    public static final char YELLOW = 'y';
+
+    private final Connect4Geometry geometry;
+    private final long redMask;
+    private final long yellowMask;
+    private final char currentMove;
+    private final int moveCount;
+
+
+    /**
+     * Constructor for the Connect4Position object
+     * @param geometry the board size and win length of the game
+     * @param redMask the discs of the red player
+     * @param yellowMask the discs of the yellow player
+     * @param currentMove the mark of the player to move {'r'|'y'}
+     * @param moveCount the number of discs on the game board
+     */
+    Connect4Position(Connect4Geometry geometry, long redMask, long yellowMask,
+                     char currentMove, int moveCount) {
+        this.geometry = geometry;
+        this.redMask = redMask;
+        this.yellowMask = yellowMask;
+        this.currentMove = currentMove;
+        this.moveCount = moveCount;
+    }
+
+
+    /**
+     * Get the board size and win length of the game
+     * @return the geometry of the game
+     */
+    public Connect4Geometry getGeometry() {
+        return geometry;
+    }
+
+
+    /**
+     * Get the number of rows
+     * @return the number of rows
+     */
+    public int getRows() {
+        return geometry.getRows();
+    }
+
+
+    /**
+     * Get the number of columns
+     * @return the number of columns
+     */
+    public int getColumns() {
+        return geometry.getColumns();
+    }
+
+
+    /**
+     * Get the mark of the player to move
+     * @return the mark of the player to move {'r'|'y'}
+     */
+    public char getCurrentMove() {
+        return currentMove;
+    }
+
+
+    /**
+     * Get the number of discs on the game board
+     * @return the number of moves made in the game
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+
+    /**
+     * Get the discs of the red player
+     * @return the bitboard of the red discs
+     */
+    public long getRedMask() {
+        return redMask;
+    }
+
+
+    /**
+     * Get the discs of the yellow player
+     * @return the bitboard of the yellow discs
+     */
+    public long getYellowMask() {
+        return yellowMask;
+    }
+
+
+    /**
+     * Get the discs of the player to move
+     * @return the bitboard of the current player's discs
+     */
+    public long getCurrentMask() {
+        return (currentMove == RED) ? redMask : yellowMask;
+    }
+
+
+    /**
+     * Get the discs of both players
+     * @return the bitboard of every occupied cell
+     */
+    public long getOccupiedMask() {
+        return redMask | yellowMask;
+    }
+
+
+    /**
+     * Get a code that identifies the position exactly, equal to
+     * Connect4Logic.getPositionCode for the game the snapshot was taken of
+     * @return the code of the position
+     */
+    public long getPositionCode() {
+        return getCurrentMask() + getOccupiedMask() + geometry.getBottomMask();
+    }
+
+
+    /**
+     * Get the mark at a position of the game board
+     * @param row the row position, 0 being the top row
+     * @param col the column position
+     * @return the mark at the position {'e'|'r'|'y'}
+     */
+    public char getMark(int row, int col) {
+        long cell = 1L << (col * geometry.getHeight() + geometry.getRows() - 1 - row);
+        if ((redMask & cell) != 0) {
+            return RED;
+        }
+        return ((yellowMask & cell) != 0) ? YELLOW : EMPTY;
+    }
+
+
+    /**
+     * Get the player who completed a line. A player has a line when one
+     * of their discs completes a line of their own discs.
+     * @return the mark of the winner {'r'|'y'}, or 'e' if nobody has won
+     */
+    public char getWinner() {
+        if ((geometry.getWinningCells(redMask) & redMask) != 0) {
+            return RED;
+        }
+        return ((geometry.getWinningCells(yellowMask) & yellowMask) != 0) ? YELLOW : EMPTY;
+    }
+
+
+    /**
+     * Check if the game board is full
+     * @return true if every cell holds a disc, false otherwise
+     */
+    public boolean isFull() {
+        return getOccupiedMask() == geometry.getBoardMask();
+    }
+
+
+    /**
+     * Check if a snapshot holds the same position as this one
+     * @param other the object to compare with
+     * @return true if the geometry, discs and player to move are the same
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Connect4Position)) {
+            return false;
+        }
+        Connect4Position position = (Connect4Position) other;
+        return geometry == position.geometry
+               && redMask == position.redMask
+               && yellowMask == position.yellowMask
+               && currentMove == position.currentMove;
+    }
+
+
+    /**
+     * Get the hash code of the position
+     * @return the hash code, consistent with equals
+     */
+    @Override
+    public int hashCode() {
+        long hash = redMask * 0x9E3779B97F4A7C15L + yellowMask;
+        hash = hash * 31 + currentMove;
+        return (int) (hash ^ (hash >>> 32)) * 31 + geometry.hashCode();
+    }
+
+
+    /**
+     * Return the string representation of the game board, in the same
+     * format as Connect4Logic.toString
+     * @return the string representing the game board
+     */
+    public String toString() {
+        int rows = geometry.getRows();
+        int columns = geometry.getColumns();
+        StringBuilder result = new StringBuilder(rows * (2 * columns + 1));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                result.append(getMark(i, j)).append(' ');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+
+}
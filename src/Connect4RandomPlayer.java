@@ -0,0 +1,52 @@
+/**
+ * Connect4RandomPlayer.java
+ * computer player that picks any open column at random.
+ * A player owns its random generator and is meant to be used
+ * by one thread.
+ */
+
+
+import java.util.SplittableRandom;
+
+
+public class Connect4RandomPlayer implements Connect4Player {
+
+    private SplittableRandom rand;
+
+
+    /**
+     * Constructor for the Connect4RandomPlayer object
+     * @param seed the seed of the player's random generator
+     */
+    public Connect4RandomPlayer(long seed) {
+        this.rand = new SplittableRandom(seed);
+    }
+
+
+    /**
+     * Choose an open column at random
+     * @param game the position, with currentMove to play
+     * @return the column to play
+     */
+    public int chooseMove(Connect4Logic game) {
+        return pickColumn(game, game.getPlayableMask(), rand);
+    }
+
+
+    /**
+     * Pick one of a set of playable cells at random
+     * @param game the position the cells belong to
+     * @param cells the bitboard of the playable cells to choose from,
+     * not empty
+     * @param rand the random generator to use
+     * @return the column of the chosen cell
+     */
+    static int pickColumn(Connect4Logic game, long cells, SplittableRandom rand) {
+        for (int skip = rand.nextInt(Long.bitCount(cells)); skip > 0; skip--) {
+            cells &= cells - 1;
+        }
+        return Long.numberOfTrailingZeros(cells) / game.getGeometry().getHeight();
+    }
+
+
+}
@@ -0,0 +1,331 @@
+/**
+ * Connect4SearchPlayer.java
+ * computer player with a hard time budget per move. It searches with
+ * depth-limited negamax and alpha-beta pruning, one ply deeper on every
+ * pass, and answers with the best move of the deepest pass completed
+ * when the budget runs out, so the time taken does not depend on the
+ * position.
+ *
+ * Wins and losses found by the search are exact, and score higher than
+ * any estimate: a position the search can see to the end scores
+ * WIN_SCORE minus the number of discs on the board when the game ends,
+ * from the point of view of the player to move. Positions at the depth
+ * limit are scored by a Connect4Evaluator.
+ */
+
+
+public class Connect4SearchPlayer implements Connect4Player {
+
+    public static final long DEFAULT_BUDGET_MILLIS = 50;
+    public static final int WIN_SCORE = 100000;
+
+    private static final int CHECK_INTERVAL = 256;
+
+    private long budgetNanos;
+    private Connect4Logic game;
+    private Connect4Evaluator evaluator;
+    private int[] columnOrder;
+    private int cells;
+    private long nodes;
+    private long deadline;
+    private boolean aborted;
+    private int rootScore;
+
+
+    /**
+     * Constructor for a player with a budget of 50 ms per move
+     */
+    public Connect4SearchPlayer() {
+        this(DEFAULT_BUDGET_MILLIS);
+    }
+
+
+    /**
+     * Constructor for a player
+     * @param budgetMillis the time allowed for each move in milliseconds
+     */
+    public Connect4SearchPlayer(long budgetMillis) {
+        if (budgetMillis < 1) {
+            throw new IllegalArgumentException("Invalid time budget: " + budgetMillis);
+        }
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+
+    /**
+     * Choose a move within the time budget of the player
+     * @param game the position, with currentMove to play
+     * @return the best column of the deepest completed search
+     * @throws IllegalArgumentException if the game is over
+     */
+    public int chooseMove(Connect4Logic game) {
+        return search(game, budgetNanos).getMove();
+    }
+
+
+    /**
+     * Search a position until the time budget runs out or the outcome
+     * of the game is known. The search plays and takes back moves on the
+     * game object, which is left as it was found once the method returns.
+     * @param game the position, with currentMove to play
+     * @param budgetNanos the time allowed for the search in nanoseconds
+     * @return the result of the deepest completed pass
+     * @throws IllegalArgumentException if the game is over
+     */
+    public synchronized Result search(Connect4Logic game, long budgetNanos) {
+        if (game.isLastMoveWin() || game.isDraw()) {
+            throw new IllegalArgumentException("The game is over");
+        }
+        long start = System.nanoTime();
+        this.game = game;
+        this.deadline = start + budgetNanos;
+        this.cells = game.getRows() * game.getColumns();
+        this.nodes = 0;
+        this.aborted = false;
+        this.evaluator = Connect4Evaluator.of(game.getGeometry());
+        columnOrder = Connect4Solver.centerFirstOrder(game.getColumns());
+
+        int moves = game.getMoveCount();
+        int[] rootOrder = columnOrder.clone();
+        for (int col : rootOrder) {
+            if (game.verifyMove(col) && game.isWinningMove(col)) {
+                return new Result(col, 1, WIN_SCORE - (moves + 1), 1,
+                                  System.nanoTime() - start);
+            }
+        }
+        long next = game.getNonLosingMoves();
+        if (next == 0) {
+            next = game.getPlayableMask();
+        }
+        int bestMove = -1;
+        for (int col : rootOrder) {
+            if (bestMove < 0 && (next & game.getColumnMask(col)) != 0) {
+                bestMove = col;
+            }
+        }
+        if (game.getNonLosingMoves() == 0) {
+            return new Result(bestMove, 1, -(WIN_SCORE - (moves + 2)), 1,
+                              System.nanoTime() - start);
+        }
+
+        int bestScore = 0;
+        int bestDepth = 0;
+        for (int depth = 1; depth <= cells - moves; depth++) {
+            int move = searchRoot(depth, rootOrder);
+            if (aborted) {
+                break;
+            }
+            bestMove = move;
+            bestScore = rootScore;
+            bestDepth = depth;
+            promote(rootOrder, move);
+            if (Math.abs(bestScore) > WIN_SCORE / 2) {
+                break;
+            }
+        }
+        return new Result(bestMove, bestDepth, bestScore, nodes,
+                          System.nanoTime() - start);
+    }
+
+
+    /**
+     * Search every move of the root to a fixed depth. The player to move
+     * can neither win at once nor lose to every move.
+     * @param depth the number of plies to search
+     * @param rootOrder the order in which to search the root moves
+     * @return the best column, with its score left in rootScore
+     */
+    private int searchRoot(int depth, int[] rootOrder) {
+        nodes++;
+        long next = game.getNonLosingMoves();
+        int alpha = -WIN_SCORE;
+        int beta = WIN_SCORE;
+        int bestMove = -1;
+        for (int col : rootOrder) {
+            if ((next & game.getColumnMask(col)) == 0) {
+                continue;
+            }
+            game.makeMove(col);
+            game.switchTurns();
+            int score = -negamax(depth - 1, -beta, -alpha);
+            game.switchTurns();
+            game.undoMove();
+            if (aborted) {
+                return -1;
+            }
+            if (score > alpha || bestMove < 0) {
+                alpha = score;
+                bestMove = col;
+            }
+        }
+        rootScore = alpha;
+        return bestMove;
+    }
+
+
+    /**
+     * Depth-limited negamax search with alpha-beta pruning. The player
+     * who just moved has not won.
+     * @param depth the number of plies left to search
+     * @param alpha the lower bound of the search window
+     * @param beta the upper bound of the search window
+     * @return the score if it lies inside the window, otherwise a bound
+     * on the side of the window it fell out of; meaningless once the
+     * search is aborted
+     */
+    private int negamax(int depth, int alpha, int beta) {
+        if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() - deadline >= 0) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        int moves = game.getMoveCount();
+        if (game.isDraw()) {
+            return 0;
+        }
+        if (game.canWinNext()) {
+            return WIN_SCORE - (moves + 1);
+        }
+        long next = game.getNonLosingMoves();
+        if (next == 0) {
+            return -(WIN_SCORE - (moves + 2));
+        }
+        if (depth <= 0) {
+            return evaluator.evaluate(game);
+        }
+
+        for (int col : columnOrder) {
+            if ((next & game.getColumnMask(col)) == 0) {
+                continue;
+            }
+            game.makeMove(col);
+            game.switchTurns();
+            int score = -negamax(depth - 1, -beta, -alpha);
+            game.switchTurns();
+            game.undoMove();
+            if (score >= beta) {
+                return score;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+        }
+        return alpha;
+    }
+
+
+    /**
+     * Move a column to the front of the search order, keeping the
+     * order of the others
+     * @param order the search order
+     * @param col the column to search first
+     */
+    private static void promote(int[] order, int col) {
+        int i = 0;
+        while (order[i] != col) {
+            i++;
+        }
+        System.arraycopy(order, 0, order, 1, i);
+        order[0] = col;
+    }
+
+
+    /**
+     * The outcome of a search
+     */
+    public static class Result {
+
+        private int move;
+        private int depth;
+        private int score;
+        private long nodes;
+        private long nanos;
+
+
+        /**
+         * Constructor for the Result object
+         * @param move the best column found
+         * @param depth the depth of the deepest completed pass
+         * @param score the score of the best column
+         * @param nodes the number of nodes searched
+         * @param nanos the time spent searching in nanoseconds
+         */
+        public Result(int move, int depth, int score, long nodes, long nanos) {
+            this.move = move;
+            this.depth = depth;
+            this.score = score;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+
+        /**
+         * Get the best move
+         * @return the best column found
+         */
+        public int getMove() {
+            return move;
+        }
+
+
+        /**
+         * Get the depth of the search
+         * @return the number of plies of the deepest completed pass,
+         * 0 if the budget ran out during the first pass
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+
+        /**
+         * Get the score of the best move
+         * @return the score, from the point of view of the player to move
+         */
+        public int getScore() {
+            return score;
+        }
+
+
+        /**
+         * Check if the search saw the game through to its end
+         * @return true if the score is an exact win or loss, false if
+         * it is an estimate
+         */
+        public boolean isProven() {
+            return Math.abs(score) > WIN_SCORE / 2;
+        }
+
+
+        /**
+         * Get the number of nodes searched
+         * @return the number of nodes searched
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+
+        /**
+         * Get the time spent searching
+         * @return the search time in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+
+        /**
+         * Return the string representation of the result
+         * @return the string describing the result
+         */
+        public String toString() {
+            return "move " + move + ", depth " + depth + ", score " + score
+                   + (isProven() ? " (proven)" : "") + ", " + nodes
+                   + " nodes in " + nanos / 1000000L + " ms";
+        }
+    }
+
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Connect4SearchStats.java
+ * counters describing how a search went: how many nodes it visited,
+ * how often it could stop a node early, how often the first move
+ * tried was the one that allowed it, and how often the transposition
+ * table knew the position. A good move order shows up as a first-move
+ * cutoff rate close to 1.
+ */
+
+
+public class Connect4SearchStats {
+
+    public static final Connect4SearchStats EMPTY = new Connect4SearchStats(0, 0, 0, 0, 0);
+
+    private long nodes;
+    private long cutoffs;
+    private long firstMoveCutoffs;
+    private long tableProbes;
+    private long tableHits;
+
+
+    /**
+     * Constructor for the Connect4SearchStats object
+     * @param nodes the number of nodes searched
+     * @param cutoffs the number of nodes left early after a move
+     * reached the upper bound of the window
+     * @param firstMoveCutoffs the number of cutoffs made by the first
+     * move searched
+     * @param tableProbes the number of transposition table lookups
+     * @param tableHits the number of lookups that found their position
+     */
+    public Connect4SearchStats(long nodes, long cutoffs, long firstMoveCutoffs,
+                               long tableProbes, long tableHits) {
+        this.nodes = nodes;
+        this.cutoffs = cutoffs;
+        this.firstMoveCutoffs = firstMoveCutoffs;
+        this.tableProbes = tableProbes;
+        this.tableHits = tableHits;
+    }
+
+
+    /**
+     * Combine the counters of two searches
+     * @param other the counters of the other search
+     * @return the sum of both sets of counters
+     */
+    public Connect4SearchStats plus(Connect4SearchStats other) {
+        return new Connect4SearchStats(nodes + other.nodes,
+                                       cutoffs + other.cutoffs,
+                                       firstMoveCutoffs + other.firstMoveCutoffs,
+                                       tableProbes + other.tableProbes,
+                                       tableHits + other.tableHits);
+    }
+
+
+    /**
+     * Get the number of nodes searched
+     * @return the number of nodes
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+
+    /**
+     * Get the number of beta cutoffs
+     * @return the number of nodes left early
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+
+    /**
+     * Get the number of beta cutoffs made by the first move searched
+     * @return the number of first-move cutoffs
+     */
+    public long getFirstMoveCutoffs() {
+        return firstMoveCutoffs;
+    }
+
+
+    /**
+     * Get the share of cutoffs made by the first move searched
+     * @return the first-move cutoff rate, 0 if there was no cutoff
+     */
+    public double getFirstMoveCutoffRate() {
+        return (cutoffs == 0) ? 0.0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+
+    /**
+     * Get the number of transposition table lookups
+     * @return the number of probes
+     */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+
+
+    /**
+     * Get the number of transposition table lookups that found
+     * their position
+     * @return the number of hits
+     */
+    public long getTableHits() {
+        return tableHits;
+    }
+
+
+    /**
+     * Get the share of transposition table lookups that found
+     * their position
+     * @return the hit rate, 0 if the table was never probed
+     */
+    public double getTableHitRate() {
+        return (tableProbes == 0) ? 0.0 : (double) tableHits / tableProbes;
+    }
+
+
+    /**
+     * Return the string representation of the counters
+     * @return the string describing the search
+     */
+    public String toString() {
+        return String.format("%d nodes, %d cutoffs (%.1f%% on first move), "
+                             + "%.1f%% table hits",
+                             nodes, cutoffs, 100 * getFirstMoveCutoffRate(),
+                             100 * getTableHitRate());
+    }
+
+
+}
@@ -0,0 +1,366 @@
+/**
+ * Connect4SelfPlay.java
+ * headless batch runner that plays complete games between two computer
+ * players and reports aggregate results while it runs: win rates, draw
+ * rate, the advantage of moving first and the length of the games.
+ *
+ * Every thread has its own game logic and its own pair of players, each
+ * with its own random generator, so threads share nothing but the
+ * counters. Results are added to the shared counters in batches and no
+ * game is kept once it has been counted. The players alternate moving
+ * first.
+ *
+ * Players are given as:
+ *   random             a random open column
+ *   heuristic          wins at once if it can, else avoids losing at once
+ *   search:<ms>        Connect4SearchPlayer with a budget per move
+ *   mcts:<playouts>    single-threaded Connect4MCTSPlayer
+ *
+ * usage:
+ * java Connect4SelfPlay <games> <player A> <player B>
+ * java Connect4SelfPlay <games> <player A> <player B> <threads>
+ * java Connect4SelfPlay <games> <player A> <player B> <threads> <seed> [rows columns win]
+ */
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class Connect4SelfPlay {
+
+    private static final int BATCH = 16;
+    private static final long REPORT_SECONDS = 5;
+
+    private String playerA;
+    private String playerB;
+    private Connect4Geometry geometry;
+    private int threads;
+    private long games;
+    private long seed;
+
+    private AtomicLong nextGame;
+    private LongAdder played;
+    private LongAdder winsA;
+    private LongAdder winsB;
+    private LongAdder firstMoverWins;
+    private LongAdder totalMoves;
+    private AtomicLongArray lengths;
+    private long start;
+
+
+    /**
+     * Constructor for the Connect4SelfPlay object
+     * @param playerA the description of the first player
+     * @param playerB the description of the second player
+     * @param geometry the board size and win length of the games
+     * @param threads the number of threads playing games
+     * @param games the number of games to play
+     * @param seed the seed the random generators of the players are
+     * derived from
+     * @throws IllegalArgumentException if a player description is invalid
+     */
+    public Connect4SelfPlay(String playerA, String playerB, Connect4Geometry geometry,
+                            int threads, long games, long seed) {
+        if (threads < 1 || games < 0) {
+            throw new IllegalArgumentException("Invalid thread or game count");
+        }
+        parsePlayer(playerA);
+        parsePlayer(playerB);
+        this.playerA = playerA;
+        this.playerB = playerB;
+        this.geometry = geometry;
+        this.threads = threads;
+        this.games = games;
+        this.seed = seed;
+        this.nextGame = new AtomicLong();
+        this.played = new LongAdder();
+        this.winsA = new LongAdder();
+        this.winsB = new LongAdder();
+        this.firstMoverWins = new LongAdder();
+        this.totalMoves = new LongAdder();
+        this.lengths = new AtomicLongArray(geometry.getCells() + 1);
+    }
+
+
+    /**
+     * Main function of the self-play runner
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("usage: java Connect4SelfPlay <games> <player A> <player B> "
+                               + "[threads [seed [rows columns win]]]");
+            System.out.println("players: random, heuristic, search:<ms>, mcts:<playouts>");
+            return;
+        }
+        try {
+            long games = Long.parseLong(args[0]);
+            int threads = (args.length > 3) ? Integer.parseInt(args[3])
+                                            : Runtime.getRuntime().availableProcessors();
+            long seed = (args.length > 4) ? Long.parseLong(args[4]) : System.nanoTime();
+            Connect4Geometry geometry = (args.length > 7)
+                ? Connect4Geometry.of(Integer.parseInt(args[5]),
+                                      Integer.parseInt(args[6]),
+                                      Integer.parseInt(args[7]))
+                : Connect4Geometry.STANDARD;
+            Connect4SelfPlay selfPlay = new Connect4SelfPlay(args[1], args[2], geometry,
+                                                             threads, games, seed);
+            selfPlay.run();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted");
+        }
+    }
+
+
+    /**
+     * Create a player from its description
+     * @param description the kind of player, with its parameter if any
+     * @param seed the seed of the player's random generator
+     * @return the player
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    public static Connect4Player createPlayer(String description, long seed) {
+        String[] parts = parsePlayer(description);
+        switch (parts[0]) {
+        case "random":
+            return new Connect4RandomPlayer(seed);
+        case "heuristic":
+            return new Connect4HeuristicPlayer(seed);
+        case "search":
+            return new Connect4SearchPlayer(
+                parameter(parts, Connect4SearchPlayer.DEFAULT_BUDGET_MILLIS));
+        case "mcts":
+            int playouts = (int) parameter(parts, Connect4MCTSPlayer.DEFAULT_PLAYOUTS);
+            int nodes = (int) Math.min(Connect4MCTSPlayer.DEFAULT_NODES, 8L * playouts + 65);
+            return new Connect4MCTSPlayer(1, playouts, nodes,
+                                          Connect4MCTSPlayer.DEFAULT_EXPLORATION, true, seed);
+        default:
+            throw new IllegalArgumentException("Unknown player: " + description);
+        }
+    }
+
+
+    /**
+     * Check a player description without creating the player
+     * @param description the kind of player, with its parameter if any
+     * @return the description split at its colon
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    public static String[] parsePlayer(String description) {
+        String[] parts = description.split(":", 2);
+        switch (parts[0]) {
+        case "random":
+        case "heuristic":
+            if (parts.length > 1) {
+                throw new IllegalArgumentException("No parameter expected: " + description);
+            }
+            return parts;
+        case "search":
+        case "mcts":
+            if (parts.length > 1) {
+                long value = Long.parseLong(parts[1]);
+                if (value < 1 || (parts[0].equals("mcts") && value > Integer.MAX_VALUE)) {
+                    throw new IllegalArgumentException("Invalid parameter: " + description);
+                }
+            }
+            return parts;
+        default:
+            throw new IllegalArgumentException("Unknown player: " + description);
+        }
+    }
+
+
+    /**
+     * Read the numeric parameter of a player description
+     * @param parts the description split at its colon
+     * @param fallback the value used when there is no parameter
+     * @return the parameter
+     * @throws IllegalArgumentException if the parameter is not a number
+     */
+    private static long parameter(String[] parts, long fallback) {
+        return (parts.length > 1) ? Long.parseLong(parts[1]) : fallback;
+    }
+
+
+    /**
+     * Play every game, printing the results so far at regular
+     * intervals and the final results at the end
+     * @throws InterruptedException if the runner is interrupted while
+     * waiting for the games
+     */
+    public void run() throws InterruptedException {
+        start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            long threadSeed = seed + i * 0x9E3779B97F4A7C15L;
+            executor.execute(() -> playGames(threadSeed));
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(REPORT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.println(this);
+        }
+        System.out.println(this);
+        System.out.println(lengthReport());
+    }
+
+
+    /**
+     * Play games on the calling thread until every game has been claimed
+     * @param threadSeed the seed of the thread's players
+     */
+    private void playGames(long threadSeed) {
+        Connect4Logic game = new Connect4Logic(geometry);
+        Connect4Player a = createPlayer(playerA, threadSeed);
+        Connect4Player b = createPlayer(playerB, ~threadSeed);
+        int[] localLengths = new int[lengths.length()];
+        long localWinsA = 0;
+        long localWinsB = 0;
+        long localFirstWins = 0;
+        long localMoves = 0;
+        try {
+            while (true) {
+                long first = nextGame.getAndAdd(BATCH);
+                if (first >= games) {
+                    break;
+                }
+                long last = Math.min(first + BATCH, games);
+                for (long n = first; n < last; n++) {
+                    boolean aFirst = (n & 1) == 0;
+                    int winner = play(game, aFirst ? a : b, aFirst ? b : a);
+                    localMoves += game.getMoveCount();
+                    localLengths[game.getMoveCount()]++;
+                    if (winner == 1) {
+                        localFirstWins++;
+                    }
+                    if (winner != 0 && (winner == 1) == aFirst) {
+                        localWinsA++;
+                    } else if (winner != 0) {
+                        localWinsB++;
+                    }
+                }
+                winsA.add(localWinsA);
+                winsB.add(localWinsB);
+                firstMoverWins.add(localFirstWins);
+                totalMoves.add(localMoves);
+                for (int i = 0; i < localLengths.length; i++) {
+                    if (localLengths[i] != 0) {
+                        lengths.addAndGet(i, localLengths[i]);
+                        localLengths[i] = 0;
+                    }
+                }
+                played.add(last - first);
+                localWinsA = 0;
+                localWinsB = 0;
+                localFirstWins = 0;
+                localMoves = 0;
+            }
+        } finally {
+            shutdown(a);
+            shutdown(b);
+        }
+    }
+
+
+    /**
+     * Play one game
+     * @param game the game logic to play on
+     * @param first the player moving first
+     * @param second the player moving second
+     * @return 1 if the first player won, 2 if the second player won,
+     * 0 for a draw
+     */
+    private static int play(Connect4Logic game, Connect4Player first, Connect4Player second) {
+        game.reset();
+        char firstMark = game.getCurrentMove();
+        while (true) {
+            Connect4Player player = (game.getCurrentMove() == firstMark) ? first : second;
+            game.makeMove(player.chooseMove(game));
+            if (game.isWin()) {
+                return (game.getCurrentMove() == firstMark) ? 1 : 2;
+            }
+            if (game.isDraw()) {
+                return 0;
+            }
+            game.switchTurns();
+        }
+    }
+
+
+    /**
+     * Release the threads of a player, if it has any
+     * @param player the player to release
+     */
+    private static void shutdown(Connect4Player player) {
+        if (player instanceof Connect4MCTSPlayer) {
+            ((Connect4MCTSPlayer) player).shutdown();
+        }
+    }
+
+
+    /**
+     * Describe the distribution of game lengths
+     * @return the shortest, median and longest game lengths
+     */
+    private String lengthReport() {
+        long total = played.sum();
+        long seen = 0;
+        int shortest = -1;
+        int median = -1;
+        int longest = -1;
+        for (int i = 0; i < lengths.length(); i++) {
+            long count = lengths.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (shortest < 0) {
+                shortest = i;
+            }
+            seen += count;
+            if (median < 0 && 2 * seen >= total) {
+                median = i;
+            }
+            longest = i;
+        }
+        return "game length: shortest " + shortest + ", median " + median
+               + ", longest " + longest + " moves";
+    }
+
+
+    /**
+     * Return the string representation of the results so far
+     * @return the string describing the results
+     */
+    public String toString() {
+        long total = played.sum();
+        long a = winsA.sum();
+        long b = winsB.sum();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%d games (%.0f/s): %s %.1f%%, %s %.1f%%, draws %.1f%%, "
+                             + "first mover %.1f%%, %.1f moves per game",
+                             total, total / seconds,
+                             playerA, percent(a, total), playerB, percent(b, total),
+                             percent(total - a - b, total),
+                             percent(firstMoverWins.sum(), total),
+                             (total == 0) ? 0.0 : (double) totalMoves.sum() / total);
+    }
+
+
+    /**
+     * Compute a percentage
+     * @param count the number of games counted
+     * @param total the number of games played
+     * @return the percentage, 0 if no game was played
+     */
+    private static double percent(long count, long total) {
+        return (total == 0) ? 0.0 : 100.0 * count / total;
+    }
+
+
+}
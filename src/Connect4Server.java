@@ -5,11 +5,34 @@
  * clients via strings and adheres to the
  * Connect4 protocol.
  * 
- * default port is 8902
- * you can also specify a port on the command line
+ * default port is 8902 and the default board is
+ * 6 rows, 7 columns and four in a row to win
+ * you can also specify a port and a board on the command line
  * usage: 
  * java Connect4Server
- * java Connect4Server <port>
+ * java Connect4Server -p <port>
+ * java Connect4Server -b <rows> <columns> <win>
+ * java Connect4Server -p <port> -b <rows> <columns> <win>
+ * java Connect4Server -mode nio -t <threads>
+ * java Connect4Server -mode virtual
+ * java Connect4Server -w <workers>
+ *
+ * the server runs in one of three modes:
+ * thread  (default) a platform thread per client, blocked reading its
+ *         socket
+ * virtual a virtual thread per client, blocked the same way; needs
+ *         Java 21 or later
+ * nio     a few event loops, by default one per processor, serving
+ *         every client with non-blocking channels
+ * bench/Connect4LoadTest compares them under load. Virtual threads
+ * save the memory of platform threads, but every read they block on
+ * passes through the JDK's poller thread and back to a carrier, so a
+ * move costs more CPU than in the other modes: on a busy server with
+ * few cores, thread and nio modes play more moves per second and answer
+ * them faster. Whatever the mode,
+ * the moves of all games are played by one pool of workers, by default
+ * one per processor.
+ *
  * Connect4 protocol
  *
  * Client -> Server       Server -> Client
@@ -18,28 +41,85 @@
  * QUIT                   VALID_MOVE <col> <row>
  * REMATCH                OTHER_PLAYER_MOVED <col> <row> 
  * DISPLAY <name>         VICTORY 
- *                        DEFEAT
- *                        DRAW
+ * LIST                   BOARD <rows> <cols> <win>
+ * CREATE                 DEFEAT
+ *   [<rows> <cols> <win>]
+ * JOIN <id>              DRAW
  *                        MESSAGE <text>
  *                        NEW_GAME
  *                        SET <char> 
  *                        NAME <string>
  *                        DISCONNECT
+ *                        GAMES <count>
+ *                        GAME <id> <state> <rows> <cols> <win> <red> <yellow>
+ *                        CREATED <id>
+ *                        ERROR <text>
+ *
+ * Lobby: before its game begins, a client may send LIST to get the games
+ * of the server, a GAMES line followed by one GAME line per game, state
+ * OPEN, PLAYING or OVER; CREATE to open a game, on the server's board or
+ * the one given, answered by CREATED and then WELCOME once someone
+ * joins; or JOIN to take the second seat of an open game, answered by
+ * WELCOME or ERROR. A client whose first line is anything else, as the
+ * DISPLAY the game client sends, is seated by quick match instead: its
+ * game is listed as open until the next client asking for a quick match
+ * on the same board, or joining it from the lobby, takes the second seat.
  */                        
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.InetAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Connect4Server {
 
     private static final int PORT = 8902;
-    private static char RED = 'r';
-    private static char YELLOW = 'y';
+    // room for a burst of connections while the accept loop catches up;
+    // the default of 50 makes clients beyond it retry a second later
+    public static final int BACKLOG = 4096;
+
+    private Connect4Geometry geometry;
+    private Connect4GameRegistry registry;
+    private Connect4Matchmaker matchmaker;
+
+
+    /**
+     * Constructor for the Connect4Server object
+     * @param geometry the board size and win length of the games
+     */
+    public Connect4Server(Connect4Geometry geometry) {
+        this(geometry, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Constructor for the Connect4Server object
+     * @param geometry the board size and win length of the games
+     * @param workers the number of threads running the events of all
+     * games
+     */
+    public Connect4Server(Connect4Geometry geometry, int workers) {
+        this.geometry = geometry;
+        this.registry = new Connect4GameRegistry();
+        AtomicInteger count = new AtomicInteger();
+        this.matchmaker = new Connect4Matchmaker(Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "game-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }), registry);
+    }
+
+
+    /**
+     * Get the registry of the games of the server
+     * @return the registry
+     */
+    public Connect4GameRegistry getRegistry() {
+        return registry;
+    }
 
 
     /**
@@ -48,26 +128,109 @@ public class Connect4Server {
      */
     public static void main(String[] args) {
         try {
-            ServerSocket listener;
-            if (args.length == 2) {
-                int port = Integer.parseInt(args[1]);
-                listener = new ServerSocket(port);
-                System.out.println("Listening on " + port);
-            } else {
-                listener = new ServerSocket(PORT); 
-                System.out.println("Listening on " + PORT);
-            }
-            while (true) {
-                Connect4NetGame game = new Connect4NetGame(new Connect4Logic());
-                Connect4NetGame.ClientHandler p1 = game.new ClientHandler(listener.accept(), RED);
-                Connect4NetGame.ClientHandler p2 = game.new ClientHandler(listener.accept(), YELLOW);
-                p1.setOpponent(p2);
-                p2.setOpponent(p1);
-                p1.start();
-                p2.start();
+            int port = PORT;
+            Connect4Geometry geometry = Connect4Geometry.STANDARD;
+            String mode = "thread";
+            int threads = Runtime.getRuntime().availableProcessors();
+            int workers = threads;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-p") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-b") && i + 3 < args.length) {
+                    geometry = Connect4Geometry.of(Integer.parseInt(args[++i]),
+                                                   Integer.parseInt(args[++i]),
+                                                   Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-mode") && i + 1 < args.length) {
+                    mode = args[++i];
+                } else if (args[i].equals("-t") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-w") && i + 1 < args.length) {
+                    workers = Integer.parseInt(args[++i]);
+                }
             }
+            new Connect4Server(geometry, workers).serve(mode, port, threads);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            System.out.println(e.getMessage());
         } catch (IOException e) {
             System.out.println(e.getMessage());
         } 
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Accept clients and hand them to the matchmaker until the server
+     * fails
+     * @param mode how clients are served: thread, virtual or nio
+     * @param port the port to listen on
+     * @param threads the number of event loops in nio mode
+     * @throws IOException if the port cannot be bound or listened on
+     */
+    public void serve(String mode, int port, int threads) throws IOException {
+        matchmaker.start();
+        if (mode.equals("nio")) {
+            Connect4NioServer nio = new Connect4NioServer(
+                port, threads, connection -> matchmaker.submit(connection, geometry));
+            System.out.println("Listening on " + port + " with " + threads
+                               + " event loops, board " + geometry);
+            nio.run();
+            return;
+        }
+        Executor executor;
+        long writerIdle;
+        if (mode.equals("thread")) {
+            executor = task -> new Thread(task).start();
+            writerIdle = Connect4SocketConnection.WRITER_IDLE_MILLIS;
+        } else if (mode.equals("virtual")) {
+            executor = virtualThreads();
+            writerIdle = 0;
+        } else {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        ServerSocket listener = new ServerSocket(port, BACKLOG);
+        System.out.println("Listening on " + port + " in " + mode + " mode, board " + geometry);
+        while (true) {
+            Socket socket = listener.accept();
+            Connect4Connection connection;
+            try {
+                connection = new Connect4SocketConnection(socket, executor, writerIdle);
+            } catch (IOException e) {
+                // one client failing to connect does not stop the others
+                System.out.println(e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ce) {}
+                continue;
+            }
+            matchmaker.submit(connection, geometry);
+        }
+    }
+
+
+    /**
+     * Get an executor starting every task in a virtual thread of its
+     * own. Virtual threads are looked up at run time so the server
+     * still builds and runs on Java 17 in the other modes.
+     * @return the executor
+     * @throws UnsupportedOperationException if the runtime has no
+     * virtual threads, or has them only as a disabled preview
+     */
+    public static Executor virtualThreads() {
+        Method start;
+        try {
+            start = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            start.invoke(null, (Runnable) () -> {});
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not enabled: "
+                                                    + e.getCause());
+        }
+        return task -> {
+            try {
+                start.invoke(null, task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Connect4SocketConnection.java
+ * a connection served by a thread of its own, blocked reading the socket
+ * between lines. Simple, and the way the server has always worked, but
+ * every idle client holds a platform thread and its stack, unless the
+ * threads are virtual ones.
+ *
+ * send never blocks: it queues the line, and a writing thread of the
+ * connection's own, started the same way as the reading one, writes the
+ * queue out. With platform threads the writer stays while lines keep
+ * coming and stops after a second without any, so an idle client holds
+ * no writer; a virtual writer stops as soon as the queue is empty, as
+ * starting a virtual thread costs less than a timed wait. A client that
+ * stops reading only blocks its own writer; once too much is queued for
+ * it, the connection fails.
+ *
+ * The reading thread is the only one calling the listener. However the
+ * connection ends, at the end of the stream, on a reset, a failed read
+ * or write or too much output queued, it tells the listener once as it
+ * stops, unless the connection was closed through close.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class Connect4SocketConnection implements Connect4Connection, Runnable {
+
+    private static final int MAX_PENDING_CHARS = 1 << 16;
+    public static final long WRITER_IDLE_MILLIS = 1000;
+
+    private Socket socket;
+    private BufferedReader in;
+    private Writer out;
+    private Executor threads;
+    private long writerIdleMillis;
+    private Listener listener;
+    private AtomicBoolean closed = new AtomicBoolean();
+    private BlockingQueue<String> output = new LinkedBlockingQueue<>();
+    private AtomicInteger pending = new AtomicInteger();
+    private AtomicBoolean writing = new AtomicBoolean();
+
+
+    /**
+     * Constructor for a connection read by a new platform thread
+     * @param socket the socket of the client
+     * @throws IOException if the streams of the socket cannot be opened
+     */
+    public Connect4SocketConnection(Socket socket) throws IOException {
+        this(socket, task -> new Thread(task).start(), WRITER_IDLE_MILLIS);
+    }
+
+
+    /**
+     * Constructor for the Connect4SocketConnection object
+     * @param socket the socket of the client
+     * @param threads starts the threads reading and writing the socket
+     * @param writerIdleMillis how long the writer waits for a line before
+     * it stops, 0 to stop as soon as the queue is empty
+     * @throws IOException if the streams of the socket cannot be opened
+     */
+    public Connect4SocketConnection(Socket socket, Executor threads, long writerIdleMillis)
+        throws IOException {
+        this.socket = socket;
+        this.threads = threads;
+        this.writerIdleMillis = writerIdleMillis;
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+    }
+
+
+    /**
+     * Start the thread reading the lines of the client
+     * @param listener the listener of the connection
+     */
+    @Override
+    public void open(Listener listener) {
+        this.listener = listener;
+        threads.execute(this);
+    }
+
+
+    /**
+     * Queue one line for the client without blocking, and start the
+     * writer if it is not running
+     * @param line the line, without its line terminator
+     */
+    @Override
+    public void send(String line) {
+        if (closed.get()) {
+            return;
+        }
+        if (pending.addAndGet(line.length() + 1) > MAX_PENDING_CHARS) {
+            fail();
+            return;
+        }
+        output.add(line);
+        if (writing.compareAndSet(false, true)) {
+            threads.execute(this::write);
+        }
+    }
+
+
+    /**
+     * Write queued lines until none has come for a while, flushing
+     * whenever the queue is empty
+     */
+    private void write() {
+        try {
+            while (true) {
+                String line = output.poll(writerIdleMillis, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    writing.set(false);
+                    // a line queued as the poll gave up may have seen the writer running
+                    if (output.isEmpty() || !writing.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                out.write(line);
+                out.write('\n');
+                pending.addAndGet(-(line.length() + 1));
+                if (output.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            fail();
+        } catch (InterruptedException e) {
+            fail();
+        }
+    }
+
+
+    /**
+     * Close the socket after a failure, so the reading thread stops and
+     * tells the listener
+     */
+    private void fail() {
+        try {
+            socket.close();
+        } catch (IOException e) {}
+    }
+
+
+    /**
+     * Close the socket
+     */
+    @Override
+    public void close() {
+        closed.set(true);
+        try {
+            socket.close();
+        } catch (IOException e) {}
+    }
+
+
+    /**
+     * The Thread run method, reading lines until the client leaves or
+     * the connection is closed, then telling the listener if it was
+     * not closed through close
+     */
+    public void run() {
+        try {
+            String line;
+            while (!closed.get() && (line = in.readLine()) != null) {
+                listener.received(line);
+            }
+        } catch (IOException e) {
+            // a reset, or the socket closed under the read
+        } catch (RuntimeException e) {
+            System.out.println(e);
+        } finally {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    socket.close();
+                } catch (IOException e) {}
+                listener.disconnected();
+            }
+        }
+    }
+
+
+}
@@ -0,0 +1,716 @@
+/**
+ * Connect4Solver.java
+ * computes the exact game-theoretic value of a Connect4 position
+ * using negamax with alpha-beta pruning and null-window probes.
+ *
+ * Scores follow the usual convention for solved Connect4: a positive
+ * score means the player to move wins, a negative score means they lose
+ * and zero is a draw. The sooner the win, the larger the score; a player
+ * winning with their last possible disc scores 1.
+ *
+ * Results are cached in a Connect4TranspositionTable under the key
+ * shared by a position and its mirror image, so both use one entry.
+ * The table may be shared with other solvers searching the same
+ * position, and the early plies can be answered from a
+ * Connect4OpeningBook. A solver made with the no-argument constructor
+ * starts with the book of the standard board that Connect4OpeningBook
+ * has built in. A Connect4Tablebase tells whether late positions
+ * are won, drawn or lost, which narrows their search window before any
+ * move is tried.
+ *
+ * The best move stored in the table is searched first. The other moves
+ * are ordered by the heuristics selected with setMoveOrdering: moves
+ * leaving the most threats, the killer moves that last caused a cutoff at
+ * the same depth, and the cells whose moves have caused the most cutoffs
+ * so far, in that order of weight. Ties keep the center-first order.
+ * The ordering state lives in arrays allocated once per board size, and
+ * every search reports how well it worked in a Connect4SearchStats.
+ * Threats alone give the fewest nodes on midgame positions of the
+ * standard board, so they are the default.
+ */
+
+
+import java.util.Arrays;
+
+
+public class Connect4Solver {
+
+    static final long DEFAULT_TABLE_BYTES = 256L << 20;
+
+    public static final int ORDER_THREATS = 1;
+    public static final int ORDER_KILLERS = 2;
+    public static final int ORDER_HISTORY = 4;
+
+    private static final int THREAT_SHIFT = 22;
+    private static final int KILLER_BONUS = 1 << 21;
+    private static final int HISTORY_LIMIT = (1 << 20) - 1;
+
+    private Connect4TranspositionTable table;
+    private Connect4OpeningBook book;
+    private Connect4Tablebase tablebase;
+    private Connect4Logic game;
+    private int[] columnOrder;
+    private int cells;
+    private long nodes;
+    private long cutoffs;
+    private long firstMoveCutoffs;
+    private long tableProbes;
+    private long tableHits;
+    private int[] history;
+    private int[] killers;
+    private int[][] moveLists;
+    private int[][] priorities;
+    private int ordering = ORDER_THREATS;
+
+
+    /**
+     * Constructor for a solver with its own 256 MB transposition table
+     * and the built-in opening book of the standard board
+     */
+    public Connect4Solver() {
+        this(new Connect4TranspositionTable(DEFAULT_TABLE_BYTES));
+        book = Connect4OpeningBook.standard();
+    }
+
+
+    /**
+     * Constructor for a solver using a given transposition table
+     * @param table the table to cache results in
+     */
+    public Connect4Solver(Connect4TranspositionTable table) {
+        this.table = table;
+    }
+
+
+    /**
+     * Solve a position. The search plays and takes back moves on the
+     * game object, which is left as it was found once the method returns.
+     * @param game the position to solve, with currentMove to play
+     * @return the result of the search
+     * @throws IllegalArgumentException if the game already has a winner
+     */
+    public Result solve(Connect4Logic game) {
+        attach(game);
+        newSearch();
+        long start = System.nanoTime();
+        int score = solveScore();
+        return new Result(score, game.getMoveCount(), cells, getStats(),
+                          System.nanoTime() - start);
+    }
+
+
+    /**
+     * Solve every move of a position
+     * @param game the position to analyze, with currentMove to play
+     * @return the score of each column from the point of view of the
+     * player to move, Integer.MIN_VALUE for full columns
+     * @throws IllegalArgumentException if the game already has a winner
+     */
+    public int[] analyze(Connect4Logic game) {
+        attach(game);
+        newSearch();
+        int[] scores = new int[game.getColumns()];
+        for (int col = 0; col < scores.length; col++) {
+            if (!game.verifyMove(col)) {
+                scores[col] = Integer.MIN_VALUE;
+            } else if (game.isWinningMove(col)) {
+                scores[col] = (cells + 1 - game.getMoveCount()) / 2;
+            } else {
+                game.makeMove(col);
+                game.switchTurns();
+                scores[col] = game.isDraw() ? 0 : -solveScore();
+                game.switchTurns();
+                game.undoMove();
+            }
+        }
+        return scores;
+    }
+
+
+    /**
+     * Get the number of positions visited by the last search
+     * @return the number of nodes searched
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+
+    /**
+     * Choose the heuristics ordering the moves that are not stored in
+     * the transposition table
+     * @param ordering a combination of ORDER_THREATS, ORDER_KILLERS and
+     * ORDER_HISTORY, or 0 for the center-first order alone
+     */
+    public void setMoveOrdering(int ordering) {
+        this.ordering = ordering;
+    }
+
+
+    /**
+     * Get the counters of the last search
+     * @return the statistics of the search
+     */
+    public Connect4SearchStats getStats() {
+        return new Connect4SearchStats(nodes, cutoffs, firstMoveCutoffs,
+                                       tableProbes, tableHits);
+    }
+
+
+    /**
+     * Get the transposition table of the solver
+     * @return the table results are cached in
+     */
+    public Connect4TranspositionTable getTable() {
+        return table;
+    }
+
+
+    /**
+     * Use an opening book to answer positions without searching them
+     * @param book the opening book, or null to search every position
+     */
+    public void setOpeningBook(Connect4OpeningBook book) {
+        this.book = book;
+    }
+
+
+    /**
+     * Use an endgame tablebase to bound the score of late positions
+     * @param tablebase the tablebase, or null to search every position
+     */
+    public void setTablebase(Connect4Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+
+    /**
+     * Search a position with a given window, used by the parallel
+     * solver once a subtree is small enough to search on one thread.
+     * The player to move must not be able to win immediately.
+     * @param game the position to search
+     * @param alpha the lower bound of the search window
+     * @param beta the upper bound of the search window
+     * @return the score or a bound on it, as for negamax
+     */
+    int search(Connect4Logic game, int alpha, int beta) {
+        attach(game);
+        return negamax(alpha, beta);
+    }
+
+
+    /**
+     * Start a new search: age the entries of the table, forget the
+     * killer moves and halve the history, so earlier searches still
+     * guide the move order without outweighing what this one learns
+     */
+    private void newSearch() {
+        table.newSearch();
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+        Arrays.fill(killers, -1);
+    }
+
+
+    /**
+     * Prepare the solver for a new search of a position
+     * @param game the position to search
+     */
+    private void attach(Connect4Logic game) {
+        if (game.isLastMoveWin()) {
+            throw new IllegalArgumentException("The game already has a winner");
+        }
+        int columns = game.getColumns();
+        if (columnOrder == null
+            || columnOrder.length != columns
+            || cells != game.getRows() * columns) {
+            columnOrder = centerFirstOrder(columns);
+            cells = game.getRows() * columns;
+            history = new int[Long.SIZE];
+            killers = new int[2 * (cells + 1)];
+            moveLists = new int[cells + 1][columns];
+            priorities = new int[cells + 1][columns];
+            Arrays.fill(killers, -1);
+        }
+        this.game = game;
+        nodes = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        tableProbes = 0;
+        tableHits = 0;
+    }
+
+
+    /**
+     * Find the exact score of the attached position by narrowing the
+     * score interval with null-window searches
+     * @return the score of the position
+     */
+    private int solveScore() {
+        int moves = game.getMoveCount();
+        if (game.isDraw()) {
+            return 0;
+        }
+        if (game.canWinNext()) {
+            return (cells + 1 - moves) / 2;
+        }
+        int score = lookupBook();
+        if (score != Connect4OpeningBook.NOT_FOUND) {
+            return score;
+        }
+        int min = -(cells - moves) / 2;
+        int max = (cells + 1 - moves) / 2;
+        int result = probeTablebase();
+        if (result == Connect4Tablebase.DRAW) {
+            return 0;
+        } else if (result == Connect4Tablebase.WIN) {
+            min = 1;
+        } else if (result == Connect4Tablebase.LOSS) {
+            max = -1;
+        }
+        while (min < max) {
+            int med = nextProbe(min, max);
+            score = negamax(med, med + 1);
+            if (score <= med) {
+                max = score;
+            } else {
+                min = score;
+            }
+        }
+        return min;
+    }
+
+
+    /**
+     * Pick the value to test with the next null-window search. Probes
+     * are pulled towards zero first, where most positions are decided.
+     * @param min the lowest score still possible
+     * @param max the highest score still possible
+     * @return the value to probe
+     */
+    static int nextProbe(int min, int max) {
+        int med = min + (max - min) / 2;
+        if (med <= 0 && min / 2 < med) {
+            med = min / 2;
+        } else if (med >= 0 && max / 2 > med) {
+            med = max / 2;
+        }
+        return med;
+    }
+
+
+    /**
+     * Negamax search with alpha-beta pruning. The player to move must
+     * not be able to win immediately.
+     * @param alpha the lower bound of the search window
+     * @param beta the upper bound of the search window
+     * @return the exact score if it lies inside the window, otherwise
+     * a bound on the side of the window it fell out of
+     */
+    private int negamax(int alpha, int beta) {
+        nodes++;
+        int moves = game.getMoveCount();
+        long next = game.getNonLosingMoves();
+        if (next == 0) {
+            return lossScore(cells, moves);
+        }
+        if (moves >= cells - 2) {
+            return 0;
+        }
+        int known = lookupBook();
+        if (known != Connect4OpeningBook.NOT_FOUND) {
+            return known;
+        }
+
+        int min = minScore(cells, moves);
+        if (alpha < min) {
+            alpha = min;
+            if (alpha >= beta) {
+                return alpha;
+            }
+        }
+        int max = maxScore(cells, moves);
+        if (beta > max) {
+            beta = max;
+            if (alpha >= beta) {
+                return beta;
+            }
+        }
+        int result = probeTablebase();
+        if (result == Connect4Tablebase.DRAW) {
+            return 0;
+        } else if (result == Connect4Tablebase.WIN && alpha < 1) {
+            alpha = 1;
+            if (alpha >= beta) {
+                return alpha;
+            }
+        } else if (result == Connect4Tablebase.LOSS && beta > -1) {
+            beta = -1;
+            if (alpha >= beta) {
+                return beta;
+            }
+        }
+
+        long key = game.getCanonicalKey();
+        boolean mirrored = game.isCanonicalMirrored();
+        int tableMove = -1;
+        long entry = table.probe(key);
+        tableProbes++;
+        if (entry != 0L) {
+            tableHits++;
+            int score = Connect4TranspositionTable.getScore(entry);
+            int bound = Connect4TranspositionTable.getBound(entry);
+            if (bound == Connect4TranspositionTable.EXACT) {
+                return score;
+            } else if (bound == Connect4TranspositionTable.LOWER && score > alpha) {
+                alpha = score;
+            } else if (bound == Connect4TranspositionTable.UPPER && score < beta) {
+                beta = score;
+            }
+            if (alpha >= beta) {
+                return score;
+            }
+            tableMove = orient(Connect4TranspositionTable.getMove(entry), mirrored);
+        }
+
+        int depth = cells - moves;
+        int windowStart = alpha;
+        int bestMove = -1;
+        int count = orderMoves(next, tableMove, moves);
+        int[] list = moveLists[moves];
+        for (int i = 0; i < count; i++) {
+            int col = list[i];
+            game.makeMove(col);
+            game.switchTurns();
+            int score = -negamax(-beta, -alpha);
+            game.switchTurns();
+            game.undoMove();
+            if (score >= beta) {
+                recordCutoff(col, next, moves, i == 0);
+                table.store(key, score, Connect4TranspositionTable.LOWER, depth,
+                            orient(col, mirrored));
+                return score;
+            }
+            if (score > alpha || bestMove < 0) {
+                bestMove = col;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+        }
+        int bound = (alpha > windowStart) ? Connect4TranspositionTable.EXACT
+                                          : Connect4TranspositionTable.UPPER;
+        table.store(key, alpha, bound, depth, orient(bestMove, mirrored));
+        return alpha;
+    }
+
+
+    /**
+     * Sort the moves of a node into the order they should be searched,
+     * in the preallocated list of its depth
+     * @param next the bitboard of the moves to search
+     * @param tableMove the best move stored in the table, -1 if none
+     * @param moves the number of discs in the position, indexing the
+     * list and the killer moves
+     * @return the number of moves in the list
+     */
+    private int orderMoves(long next, int tableMove, int moves) {
+        int[] list = moveLists[moves];
+        int[] priority = priorities[moves];
+        int count = 0;
+        for (int col : columnOrder) {
+            long move = next & game.getColumnMask(col);
+            if (move == 0) {
+                continue;
+            }
+            int value;
+            if (col == tableMove) {
+                value = Integer.MAX_VALUE;
+            } else {
+                value = 0;
+                if ((ordering & ORDER_THREATS) != 0) {
+                    value += game.countThreats(move) << THREAT_SHIFT;
+                }
+                if ((ordering & ORDER_KILLERS) != 0
+                    && (col == killers[2 * moves] || col == killers[2 * moves + 1])) {
+                    value += KILLER_BONUS;
+                }
+                if ((ordering & ORDER_HISTORY) != 0) {
+                    value += history[Long.numberOfTrailingZeros(move)];
+                }
+            }
+            int i = count++;
+            while (i > 0 && priority[i - 1] < value) {
+                list[i] = list[i - 1];
+                priority[i] = priority[i - 1];
+                i--;
+            }
+            list[i] = col;
+            priority[i] = value;
+        }
+        return count;
+    }
+
+
+    /**
+     * Learn from a move that caused a beta cutoff: make it a killer move
+     * at its depth and raise the history of its cell, more so the more
+     * of the tree below it the cutoff saved
+     * @param col the column of the move
+     * @param next the bitboard of the moves of the node
+     * @param moves the number of discs in the position
+     * @param first true if the move was the first one searched
+     */
+    private void recordCutoff(int col, long next, int moves, boolean first) {
+        cutoffs++;
+        if (first) {
+            firstMoveCutoffs++;
+        }
+        if (killers[2 * moves] != col) {
+            killers[2 * moves + 1] = killers[2 * moves];
+            killers[2 * moves] = col;
+        }
+        int cell = Long.numberOfTrailingZeros(next & game.getColumnMask(col));
+        int depth = cells - moves;
+        history[cell] += depth * depth;
+        if (history[cell] > HISTORY_LIMIT) {
+            for (int i = 0; i < history.length; i++) {
+                history[i] >>= 1;
+            }
+        }
+    }
+
+
+    /**
+     * Convert a column between the attached position and the orientation
+     * its canonical key was taken from
+     * @param col the column to convert, -1 for none
+     * @param mirrored true if the canonical key is that of the mirror image
+     * @return the column in the other orientation
+     */
+    private int orient(int col, boolean mirrored) {
+        return (mirrored && col >= 0) ? columnOrder.length - 1 - col : col;
+    }
+
+
+    /**
+     * Look up the attached position in the opening book
+     * @return the exact score of the position, or NOT_FOUND if there is
+     * no book or the position is not in it
+     */
+    private int lookupBook() {
+        if (book == null || game.getMoveCount() > book.getPlies()) {
+            return Connect4OpeningBook.NOT_FOUND;
+        }
+        return book.getScore(game);
+    }
+
+
+    /**
+     * Look up the attached position in the endgame tablebase
+     * @return WIN, DRAW or LOSS for the player to move, or UNKNOWN if
+     * there is no tablebase or the position has too many empty cells
+     */
+    private int probeTablebase() {
+        if (tablebase == null || cells - game.getMoveCount() > tablebase.getMaxEmpty()) {
+            return Connect4Tablebase.UNKNOWN;
+        }
+        return tablebase.probe(game);
+    }
+
+
+    /**
+     * Get the score of a position where every move lets the opponent
+     * win on the following turn
+     * @param cells the number of cells on the game board
+     * @param moves the number of discs in the position
+     * @return the score of the position
+     */
+    static int lossScore(int cells, int moves) {
+        return -(cells - moves) / 2;
+    }
+
+
+    /**
+     * Get the lowest score possible in a position where the player to
+     * move has a move that does not lose at once
+     * @param cells the number of cells on the game board
+     * @param moves the number of discs in the position
+     * @return the lower bound of the score
+     */
+    static int minScore(int cells, int moves) {
+        return -(cells - 2 - moves) / 2;
+    }
+
+
+    /**
+     * Get the highest score possible in a position where the player to
+     * move cannot win at once
+     * @param cells the number of cells on the game board
+     * @param moves the number of discs in the position
+     * @return the upper bound of the score
+     */
+    static int maxScore(int cells, int moves) {
+        return (cells - 1 - moves) / 2;
+    }
+
+
+    /**
+     * Order the columns from the center outwards, since central discs
+     * take part in more lines and tend to produce cutoffs sooner
+     * @param columns the number of columns
+     * @return the columns in search order
+     */
+    static int[] centerFirstOrder(int columns) {
+        int[] order = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            order[i] = columns / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+        }
+        return order;
+    }
+
+
+    /**
+     * The outcome of a search
+     */
+    public static class Result {
+
+        private int score;
+        private int movesToEnd;
+        private Connect4SearchStats stats;
+        private long nanos;
+
+
+        /**
+         * Constructor for the Result object
+         * @param score the score of the position
+         * @param moves the number of discs in the position
+         * @param cells the number of cells on the game board
+         * @param stats the counters of the search
+         * @param nanos the time spent searching in nanoseconds
+         */
+        public Result(int score, int moves, int cells, Connect4SearchStats stats,
+                      long nanos) {
+            this.score = score;
+            this.movesToEnd = movesToEnd(score, moves, cells);
+            this.stats = stats;
+            this.nanos = nanos;
+        }
+
+
+        /**
+         * Convert a score into the number of moves, counting both players,
+         * until the game ends with perfect play
+         * @param score the score of the position
+         * @param moves the number of discs in the position
+         * @param cells the number of cells on the game board
+         * @return the number of moves left in the game
+         */
+        private static int movesToEnd(int score, int moves, int cells) {
+            if (score == 0) {
+                return cells - moves;
+            }
+            int winnerParity = (score > 0) ? moves % 2 : (moves + 1) % 2;
+            int last = cells + 1 - 2 * Math.abs(score);
+            if (last % 2 != winnerParity) {
+                last--;
+            }
+            return last - moves + 1;
+        }
+
+
+        /**
+         * Get the score of the position
+         * @return the score from the point of view of the player to move
+         */
+        public int getScore() {
+            return score;
+        }
+
+
+        /**
+         * Check if the player to move wins with perfect play
+         * @return true if the position is won, false otherwise
+         */
+        public boolean isWin() {
+            return score > 0;
+        }
+
+
+        /**
+         * Check if the player to move loses against perfect play
+         * @return true if the position is lost, false otherwise
+         */
+        public boolean isLoss() {
+            return score < 0;
+        }
+
+
+        /**
+         * Check if the position is a draw with perfect play
+         * @return true if the position is drawn, false otherwise
+         */
+        public boolean isDraw() {
+            return score == 0;
+        }
+
+
+        /**
+         * Get the number of moves until the game ends with perfect play
+         * @return the number of moves left, counting both players
+         */
+        public int getMovesToEnd() {
+            return movesToEnd;
+        }
+
+
+        /**
+         * Get the number of positions visited by the search
+         * @return the number of nodes searched
+         */
+        public long getNodes() {
+            return stats.getNodes();
+        }
+
+
+        /**
+         * Get the counters of the search
+         * @return the statistics of the search
+         */
+        public Connect4SearchStats getStats() {
+            return stats;
+        }
+
+
+        /**
+         * Get the time spent searching
+         * @return the search time in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+
+        /**
+         * Get the search speed
+         * @return the number of nodes searched per second
+         */
+        public long getNodesPerSecond() {
+            return (nanos == 0) ? 0 : stats.getNodes() * 1000000000L / nanos;
+        }
+
+
+        /**
+         * Return the string representation of the result
+         * @return the string describing the result
+         */
+        public String toString() {
+            String outcome = isWin() ? "win" : isLoss() ? "loss" : "draw";
+            return outcome + " in " + movesToEnd + " moves (score " + score + "), "
+                   + stats + ", " + getNodesPerSecond() + " nodes/s";
+        }
+    }
+
+
+}
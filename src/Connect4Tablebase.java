@@ -0,0 +1,183 @@
+/**
+ * Connect4Tablebase.java
+ * read-only endgame tablebase, memory mapped from a file written by
+ * Connect4TablebaseGenerator. It holds the result of every reachable
+ * position with at most a given number of empty cells, as a win, draw
+ * or loss for the player to move, in two bits per position.
+ *
+ * Positions are found through a perfect hash of their canonical position
+ * code, built by hash and displace: a first hash puts each position in a
+ * small bucket, and every bucket stores the displacement that sends all
+ * of its positions to free slots of the value array. A lookup is two
+ * hashes and two reads, and the file holds no keys, so it must only be
+ * asked about positions in its domain: reachable positions whose game is
+ * not over and which have at most getMaxEmpty() empty cells. For any
+ * other position the answer is meaningless.
+ *
+ * File layout, big-endian:
+ *   int    magic "C4TB"
+ *   int    rows
+ *   int    columns
+ *   int    win length
+ *   int    maximum number of empty cells
+ *   int    number of positions
+ *   int    number of value slots
+ *   int    number of buckets
+ *   long   hash seed
+ *   char   displacement of each bucket
+ *   byte   values, four 2-bit slots per byte, lowest bits first
+ */
+
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class Connect4Tablebase {
+
+    public static final int UNKNOWN = 0;
+    public static final int LOSS = 1;
+    public static final int DRAW = 2;
+    public static final int WIN = 3;
+
+    static final int MAGIC = 0x43345442;
+    static final int HEADER_BYTES = 8 * Integer.BYTES + Long.BYTES;
+    static final int MAX_DISPLACEMENT = Character.MAX_VALUE;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private MappedByteBuffer buffer;
+    private int rows;
+    private int columns;
+    private int win;
+    private int maxEmpty;
+    private int count;
+    private int slots;
+    private int buckets;
+    private long seed;
+    private int valueOffset;
+
+
+    /**
+     * Constructor for the Connect4Tablebase object
+     * @param buffer the mapped contents of a tablebase file
+     * @throws IOException if the contents are not a tablebase
+     */
+    private Connect4Tablebase(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a tablebase");
+        }
+        rows = buffer.getInt(4);
+        columns = buffer.getInt(8);
+        win = buffer.getInt(12);
+        maxEmpty = buffer.getInt(16);
+        count = buffer.getInt(20);
+        slots = buffer.getInt(24);
+        buckets = buffer.getInt(28);
+        seed = buffer.getLong(32);
+        long values = HEADER_BYTES + (long) buckets * Character.BYTES;
+        if (buffer.capacity() != values + (slots + 3L) / 4) {
+            throw new IOException("Truncated tablebase");
+        }
+        valueOffset = (int) values;
+    }
+
+
+    /**
+     * Map a tablebase file
+     * @param path the location of the tablebase
+     * @return the tablebase
+     * @throws IOException if the file cannot be read or is not a tablebase
+     */
+    public static Connect4Tablebase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Connect4Tablebase(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+
+    /**
+     * Get the largest number of empty cells of the positions stored
+     * @return the maximum number of empty cells
+     */
+    public int getMaxEmpty() {
+        return maxEmpty;
+    }
+
+
+    /**
+     * Get the number of positions in the tablebase
+     * @return the number of positions
+     */
+    public int size() {
+        return count;
+    }
+
+
+    /**
+     * Look up the result of a position
+     * @param game the position, with currentMove to play; it must have
+     * been reached by legal play and the game must not be over
+     * @return WIN, DRAW or LOSS for the player to move, or UNKNOWN if the
+     * position has too many empty cells or is on another board
+     */
+    public int probe(Connect4Logic game) {
+        int empty = rows * columns - game.getMoveCount();
+        if (empty > maxEmpty
+            || empty == 0
+            || game.getRows() != rows
+            || game.getColumns() != columns
+            || game.getWin() != win) {
+            return UNKNOWN;
+        }
+        long hash = hash(game.getCanonicalPositionCode(), seed);
+        int displacement = buffer.getChar(HEADER_BYTES
+                                          + bucket(hash, buckets) * Character.BYTES);
+        int slot = slot(hash, displacement, slots);
+        return (buffer.get(valueOffset + (slot >>> 2)) >>> ((slot & 3) * 2)) & 3;
+    }
+
+
+    /**
+     * Hash a position code
+     * @param code the canonical position code
+     * @param seed the seed of the hash function
+     * @return the hash of the code
+     */
+    static long hash(long code, long seed) {
+        long z = code + seed * GOLDEN;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+
+    /**
+     * Get the bucket of a hashed position
+     * @param hash the hash of the position code
+     * @param buckets the number of buckets
+     * @return the bucket index
+     */
+    static int bucket(long hash, int buckets) {
+        return (int) Long.remainderUnsigned(hash, buckets);
+    }
+
+
+    /**
+     * Get the value slot of a hashed position
+     * @param hash the hash of the position code
+     * @param displacement the displacement of the position's bucket
+     * @param slots the number of value slots
+     * @return the slot index
+     */
+    static int slot(long hash, int displacement, int slots) {
+        return (int) Long.remainderUnsigned(hash(hash, displacement + 1), slots);
+    }
+
+
+}
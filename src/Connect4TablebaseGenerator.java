@@ -0,0 +1,834 @@
+/**
+ * Connect4TablebaseGenerator.java
+ * offline tool that computes the result of every reachable position
+ * with at most a given number of empty cells and writes them as a
+ * Connect4Tablebase.
+ *
+ * Only the layers that are stored are ever visited, one layer per number
+ * of discs, from the fullest upwards. Each layer is enumerated directly:
+ * the columns are filled from the last to the first, every column taking
+ * its possible contents in increasing order of their code, so the
+ * canonical codes come out already sorted and a position is kept only if
+ * it is its own canonical form. Partial boards holding a line are
+ * dropped at once, and a complete board is kept if the player to move
+ * has the right number of discs and some order of play reaches it.
+ *
+ * Layers are streamed to files in a work directory rather than held in
+ * memory, and a layer is solved as soon as it is written, from the
+ * layer below it: a position is a win if some move wins at once or
+ * leads to a loss for the opponent, a draw if the best it can reach is
+ * a draw, and a loss otherwise. The perfect hash is built from the
+ * layer files too, reading them again for each size of bucket, so the
+ * heap holds about four bytes per stored position and nothing for the
+ * layers of the game tree above them. Asking for as many empty cells as
+ * the board has produces a complete strong solution of the board.
+ *
+ * usage:
+ * java Connect4TablebaseGenerator <empty cells> <file>
+ * java Connect4TablebaseGenerator <empty cells> <file> <rows> <columns> <win>
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+public class Connect4TablebaseGenerator {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int BUCKET_SIZE = 4;
+    private static final double LOAD = 0.97;
+    private static final int MAX_SEEDS = 16;
+    private static final int MIN_VISITED_SLOTS = 1 << 10;
+    private static final long MAX_POSITIONS = (long) (Integer.MAX_VALUE * LOAD);
+
+    private Connect4Geometry geometry;
+    private int maxEmpty;
+    private int cells;
+    private int height;
+    private long bottom;
+    private long columnBits;
+
+    private Path directory;
+    private int count;
+    private long seed;
+    private int slots;
+    private char[] displacements;
+    private byte[] slotValues;
+
+    private int targetDiscs;
+    private int targetMovers;
+    private long found;
+    private FileChannel output;
+    private ByteBuffer outputBuffer;
+    private int[] latest;
+    private long[][] candidates;
+    private long replayFirst;
+    private long replayOccupied;
+    private int[] due;
+    private int[] ready;
+    private long[] visited;
+    private int[] visitedStamps;
+    private int visitedCount;
+    private int stamp;
+
+
+    /**
+     * Constructor for the Connect4TablebaseGenerator object
+     * @param geometry the board size and win length of the tablebase
+     * @param maxEmpty the largest number of empty cells of the positions
+     * to store, capped at the number of cells of the board
+     */
+    public Connect4TablebaseGenerator(Connect4Geometry geometry, int maxEmpty) {
+        if (maxEmpty < 1) {
+            throw new IllegalArgumentException("Invalid number of empty cells: " + maxEmpty);
+        }
+        this.geometry = geometry;
+        this.cells = geometry.getCells();
+        this.maxEmpty = Math.min(maxEmpty, cells);
+        this.height = geometry.getHeight();
+        this.bottom = geometry.getBottomMask();
+        this.columnBits = (1L << height) - 1;
+        this.latest = new int[Long.SIZE];
+        this.candidates = new long[cells + 1][geometry.getColumns()];
+        this.due = new int[cells + 2];
+        this.ready = new int[cells + 2];
+        this.visited = new long[MIN_VISITED_SLOTS];
+        this.visitedStamps = new int[MIN_VISITED_SLOTS];
+    }
+
+
+    /**
+     * Main function of the tablebase generator
+     * @param args the command line arguments passed to this program
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("usage: java Connect4TablebaseGenerator <empty cells> <file> "
+                               + "[rows columns win]");
+            return;
+        }
+        try {
+            Connect4Geometry geometry = (args.length > 4)
+                ? Connect4Geometry.of(Integer.parseInt(args[2]),
+                                      Integer.parseInt(args[3]),
+                                      Integer.parseInt(args[4]))
+                : Connect4Geometry.STANDARD;
+            Connect4TablebaseGenerator generator =
+                new Connect4TablebaseGenerator(geometry, Integer.parseInt(args[0]));
+            Path file = Paths.get(args[1]).toAbsolutePath();
+            Path work = Files.createTempDirectory(file.getParent(), "layers");
+            long start = System.nanoTime();
+            try {
+                generator.generate(work);
+                generator.write(file);
+            } finally {
+                generator.deleteLayers();
+                Files.delete(work);
+            }
+            System.out.println("Wrote " + generator.count + " positions in "
+                               + (System.nanoTime() - start) / 1000000000L + " s");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Enumerate and solve every layer of the tablebase, then build the
+     * perfect hash that indexes its positions
+     * @param directory the directory the layer files are written to
+     * @throws IOException if a layer file cannot be written or read
+     * @throws IllegalStateException if the tablebase would hold more
+     * positions than its format can index, or if no hash seed places
+     * every position
+     */
+    public void generate(Path directory) throws IOException {
+        this.directory = directory;
+        int firstStored = cells - maxEmpty;
+        long total = 0;
+        for (int discs = cells - 1; discs >= firstStored; discs--) {
+            long size = enumerate(discs);
+            System.out.println(discs + " discs: " + size + " positions");
+            total += size;
+            if (total > MAX_POSITIONS) {
+                throw new IllegalStateException("Too many positions for one tablebase: " + total);
+            }
+            solve(discs);
+        }
+        count = (int) total;
+        buildHash();
+    }
+
+
+    /**
+     * Remove the layer files left by generate
+     * @throws IOException if a file cannot be deleted
+     */
+    public void deleteLayers() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        for (int discs = 0; discs < cells; discs++) {
+            Files.deleteIfExists(codeFile(discs));
+            Files.deleteIfExists(resultFile(discs));
+        }
+    }
+
+
+    /**
+     * Write the sorted canonical codes of every reachable position of a
+     * layer whose game is not over to the layer's code file
+     * @param discs the number of discs of the layer
+     * @return the number of positions of the layer
+     * @throws IOException if the file cannot be written
+     */
+    private long enumerate(int discs) throws IOException {
+        targetDiscs = discs;
+        targetMovers = discs / 2;
+        found = 0;
+        try (FileChannel channel = create(codeFile(discs))) {
+            output = channel;
+            outputBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            fill(geometry.getColumns() - 1, 0L, 0L, 0, 0);
+            drain(channel, outputBuffer);
+        } finally {
+            output = null;
+            outputBuffer = null;
+        }
+        return found;
+    }
+
+
+    /**
+     * Try every content of a column, then fill the columns before it.
+     * A column content is its code in a position code: the discs of the
+     * player to move with a marker above the top disc, so taking them in
+     * increasing order makes the codes of complete boards increase too.
+     * @param col the column to fill, -1 once every column is filled
+     * @param current the discs of the player to move in the columns filled
+     * @param occupied the discs of both players in the columns filled
+     * @param discs the number of discs in the columns filled
+     * @param movers the number of discs of the player to move in the
+     * columns filled
+     * @throws IOException if the layer file cannot be written
+     */
+    private void fill(int col, long current, long occupied, int discs, int movers)
+        throws IOException {
+        if (col < 0) {
+            long code = current + occupied + bottom;
+            if (canonical(code) == code && reachable(current, occupied)) {
+                if (outputBuffer.remaining() < Long.BYTES) {
+                    drain(output, outputBuffer);
+                }
+                outputBuffer.putLong(code);
+                found++;
+            }
+            return;
+        }
+        int rows = geometry.getRows();
+        int shift = col * height;
+        for (int content = 1; content < (1 << (rows + 1)); content++) {
+            int discsHere = 31 - Integer.numberOfLeadingZeros(content);
+            int total = discs + discsHere;
+            if (total > targetDiscs) {
+                break;
+            }
+            if (total + col * rows < targetDiscs) {
+                continue;
+            }
+            int moversHere = Integer.bitCount(content) - 1;
+            if (movers + moversHere > targetMovers
+                || total - movers - moversHere > targetDiscs - targetMovers) {
+                continue;
+            }
+            long column = ((1L << discsHere) - 1) << shift;
+            long mine = (long) (content ^ (1 << discsHere)) << shift;
+            long nextCurrent = current | mine;
+            long nextOccupied = occupied | column;
+            if (!hasLine(nextCurrent, mine) && !hasLine(nextOccupied ^ nextCurrent, column ^ mine)) {
+                fill(col - 1, nextCurrent, nextOccupied, total, movers + moversHere);
+            }
+        }
+    }
+
+
+    /**
+     * Check if any disc of a set lies on a line of one player
+     * @param mask the discs of the player
+     * @param discs the discs to check, all of them in mask
+     * @return true if one of the discs completes a line, false otherwise
+     */
+    private boolean hasLine(long mask, long discs) {
+        while (discs != 0) {
+            long disc = discs & -discs;
+            if (geometry.isLineThrough(mask, disc)) {
+                return true;
+            }
+            discs ^= disc;
+        }
+        return false;
+    }
+
+
+    /**
+     * Check if a position without lines can be reached by alternate
+     * play from the empty board. Every disc has a latest turn it can be
+     * played on: the last turn of its player for the top disc of a
+     * column, and for each disc below, the last turn of its player
+     * before the disc above.
+     * @param current the discs of the player to move
+     * @param occupied the discs of both players
+     * @return true if the position is reachable, false otherwise
+     */
+    private boolean reachable(long current, long occupied) {
+        long first = ((targetDiscs & 1) == 0) ? current : occupied ^ current;
+        for (int col = 0; col < geometry.getColumns(); col++) {
+            int shift = col * height;
+            int turn = targetDiscs + 1;
+            for (int row = Long.bitCount(occupied & (columnBits << shift)) - 1; row >= 0; row--) {
+                int parity = (int) (first >>> (shift + row)) & 1;
+                turn -= ((turn - 1 - parity) & 1) + 1;
+                if (turn < 1) {
+                    return false;
+                }
+                latest[shift + row] = turn;
+            }
+        }
+        replayFirst = first;
+        replayOccupied = occupied;
+        stamp++;
+        visitedCount = 0;
+        return replay(0L, 1);
+    }
+
+
+    /**
+     * Replay the turns of a position in order, trying first the disc
+     * whose latest turn comes soonest. That choice is almost always
+     * right, and boards that lead nowhere are remembered so that a
+     * position no order of play reaches is rejected without trying any
+     * board twice.
+     * @param placed the discs already replayed
+     * @param turn the turn to replay, starting at 1
+     * @return true if the remaining discs can be replayed, false otherwise
+     */
+    private boolean replay(long placed, int turn) {
+        if (turn > targetDiscs) {
+            return true;
+        }
+        long next = (placed + bottom) & replayOccupied;
+        for (long rest = next; rest != 0L; rest &= rest - 1) {
+            if (latest[Long.numberOfTrailingZeros(rest)] < turn) {
+                return false;
+            }
+        }
+        if (!visit(placed)) {
+            return false;
+        }
+        long playable = next & (((turn & 1) == 1) ? replayFirst : ~replayFirst);
+        long[] list = candidates[turn];
+        int count = 0;
+        for (; playable != 0L; playable &= playable - 1) {
+            long disc = playable & -playable;
+            int i = count++;
+            while (i > 0 && latest[Long.numberOfTrailingZeros(list[i - 1])]
+                            > latest[Long.numberOfTrailingZeros(disc)]) {
+                list[i] = list[i - 1];
+                i--;
+            }
+            list[i] = disc;
+        }
+        for (int i = 0; i < count; i++) {
+            if (replay(placed | list[i], turn + 1)) {
+                return true;
+            }
+            if (i == 0 && count > 1 && !bounded(placed, turn)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Check the bounds every order of play from a board must respect.
+     * Each disc left has an earliest turn, the next turn of its player
+     * after the disc below it, as well as its latest turn, and from any
+     * turn on, each player must always have as many discs ready to play
+     * as it has turns, and no more discs due than it has turns. Only
+     * checked once the first choice of a board has failed, so the
+     * positions replayed without going back cost nothing more.
+     * @param placed the discs already replayed
+     * @param turn the turn to replay next
+     * @return false if no order of play can complete the board, true if
+     * it might
+     */
+    private boolean bounded(long placed, int turn) {
+        Arrays.fill(due, 0);
+        Arrays.fill(ready, 0);
+        long rest = replayOccupied & ~placed;
+        for (int col = 0; col < geometry.getColumns(); col++) {
+            int earliest = turn - 1;
+            for (long stack = rest & (columnBits << (col * height)); stack != 0L; stack &= stack - 1) {
+                int bit = Long.numberOfTrailingZeros(stack);
+                earliest++;
+                if ((earliest & 1) != ((replayFirst >>> bit) & 1)) {
+                    earliest++;
+                }
+                if (earliest > latest[bit]) {
+                    return false;
+                }
+                due[latest[bit]]++;
+                ready[earliest]++;
+            }
+        }
+        int[] turns = new int[2];
+        int[] dueSoFar = new int[2];
+        int[] readySoFar = new int[2];
+        for (int t = turn; t <= targetDiscs; t++) {
+            int player = t & 1;
+            turns[player]++;
+            dueSoFar[player] += due[t];
+            readySoFar[player] += ready[t];
+            if (dueSoFar[player] > turns[player] || readySoFar[player] < turns[player]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Remember a board tried while replaying the current position, in an
+     * open addressing set that is emptied by moving to the next stamp
+     * @param placed the discs replayed so far
+     * @return true if the board is new, false if it was tried before
+     */
+    private boolean visit(long placed) {
+        int mask = visited.length - 1;
+        int index = (int) Connect4Tablebase.hash(placed, 0L) & mask;
+        while (visitedStamps[index] == stamp) {
+            if (visited[index] == placed) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        visited[index] = placed;
+        visitedStamps[index] = stamp;
+        if (++visitedCount > visited.length / 4 * 3) {
+            long[] old = visited;
+            int[] oldStamps = visitedStamps;
+            visited = new long[old.length << 1];
+            visitedStamps = new int[old.length << 1];
+            mask = visited.length - 1;
+            for (int i = 0; i < old.length; i++) {
+                if (oldStamps[i] == stamp) {
+                    index = (int) Connect4Tablebase.hash(old[i], 0L) & mask;
+                    while (visitedStamps[index] == stamp) {
+                        index = (index + 1) & mask;
+                    }
+                    visited[index] = old[i];
+                    visitedStamps[index] = stamp;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Solve every position of a layer from the results of the layer
+     * below it, writing the results to the layer's result file
+     * @param discs the number of discs of the layer
+     * @throws IOException if a layer file cannot be read or written
+     */
+    private void solve(int discs) throws IOException {
+        int columns = geometry.getColumns();
+        Layer layer = new Layer(codeFile(discs), Long.BYTES);
+        Layer children = (discs + 1 < cells) ? new Layer(codeFile(discs + 1), Long.BYTES) : null;
+        Layer childResults = (discs + 1 < cells) ? new Layer(resultFile(discs + 1), Byte.BYTES)
+                                                 : null;
+        try (FileChannel channel = create(resultFile(discs))) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            for (long i = 0; i < layer.size(); i++) {
+                long code = layer.getLong(i);
+                long markers = markers(code);
+                long occupied = markers - bottom;
+                long current = code ^ markers;
+                int best = Connect4Tablebase.LOSS;
+                for (int col = 0; col < columns && best != Connect4Tablebase.WIN; col++) {
+                    long move = markers & geometry.getColumnMask(col);
+                    if (move == 0) {
+                        continue;
+                    }
+                    if (geometry.isLineThrough(current | move, move)) {
+                        best = Connect4Tablebase.WIN;
+                        continue;
+                    }
+                    long childOccupied = occupied | move;
+                    if (childOccupied == geometry.getBoardMask()) {
+                        best = Math.max(best, Connect4Tablebase.DRAW);
+                        continue;
+                    }
+                    long child = canonical((occupied ^ current) + childOccupied + bottom);
+                    int result = childResults.getByte(children.search(child));
+                    best = Math.max(best, Connect4Tablebase.WIN + Connect4Tablebase.LOSS - result);
+                }
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.put((byte) best);
+            }
+            drain(channel, buffer);
+        }
+    }
+
+
+    /**
+     * Find the first empty cell of every column of a position
+     * @param code the position code
+     * @return the bitboard of the first empty cell of each column, set
+     * in the spare bit of full columns
+     */
+    private long markers(long code) {
+        long markers = 0L;
+        for (int col = 0; col < geometry.getColumns(); col++) {
+            markers |= Long.highestOneBit(code & (columnBits << (col * height)));
+        }
+        return markers;
+    }
+
+
+    /**
+     * Get the code shared by a position and its mirror image, as
+     * Connect4Logic.getCanonicalPositionCode does
+     * @param code the position code
+     * @return the smaller of the codes of the position and of its mirror,
+     * compared as unsigned numbers
+     */
+    private long canonical(long code) {
+        int columns = geometry.getColumns();
+        long mirror = 0L;
+        for (int col = 0; col < columns; col++) {
+            mirror |= ((code >>> (col * height)) & columnBits) << ((columns - 1 - col) * height);
+        }
+        return (Long.compareUnsigned(code, mirror) <= 0) ? code : mirror;
+    }
+
+
+    /**
+     * Get the file holding the sorted canonical codes of a layer
+     * @param discs the number of discs of the layer
+     * @return the location of the file
+     */
+    private Path codeFile(int discs) {
+        return directory.resolve(discs + ".codes");
+    }
+
+
+    /**
+     * Get the file holding the results of a layer, one byte per position
+     * in the order of its code file
+     * @param discs the number of discs of the layer
+     * @return the location of the file
+     */
+    private Path resultFile(int discs) {
+        return directory.resolve(discs + ".results");
+    }
+
+
+    /**
+     * Open a file for writing, emptying it if it exists
+     * @param path the location of the file
+     * @return the channel to write to
+     * @throws IOException if the file cannot be opened
+     */
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(path,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+
+    /**
+     * Build the perfect hash of the positions: buckets are placed largest
+     * first, each at the first displacement that sends all of its
+     * positions to free slots. The hashes are not kept: they are
+     * recomputed from the layer files for each size of bucket, so the
+     * heap holds only the buckets of one size at a time.
+     * @throws IOException if a layer file cannot be read
+     * @throws IllegalStateException if no hash seed places every position
+     */
+    private void buildHash() throws IOException {
+        slots = Math.max(1, (int) Math.ceil(count / LOAD));
+        int buckets = (int) Math.max(1, ((long) count + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        for (seed = 0; seed < MAX_SEEDS; seed++) {
+            if (placeBuckets(buckets)) {
+                slotValues = new byte[(int) ((slots + 3L) / 4)];
+                for (int discs = cells - maxEmpty; discs < cells; discs++) {
+                    Layer layer = new Layer(codeFile(discs), Long.BYTES);
+                    Layer results = new Layer(resultFile(discs), Byte.BYTES);
+                    for (long i = 0; i < layer.size(); i++) {
+                        long hash = Connect4Tablebase.hash(layer.getLong(i), seed);
+                        int slot = Connect4Tablebase.slot(
+                            hash, displacements[Connect4Tablebase.bucket(hash, buckets)], slots);
+                        slotValues[slot >>> 2] |= (byte) (results.getByte(i) << ((slot & 3) * 2));
+                    }
+                }
+                return;
+            }
+            System.out.println("Hash seed " + seed + " failed, retrying");
+        }
+        throw new IllegalStateException("No perfect hash found");
+    }
+
+
+    /**
+     * Find a displacement for every bucket
+     * @param buckets the number of buckets
+     * @return true if every bucket was placed, false otherwise
+     * @throws IOException if a layer file cannot be read
+     */
+    private boolean placeBuckets(int buckets) throws IOException {
+        byte[] sizes = new byte[buckets];
+        for (int discs = cells - maxEmpty; discs < cells; discs++) {
+            Layer layer = new Layer(codeFile(discs), Long.BYTES);
+            for (long i = 0; i < layer.size(); i++) {
+                int b = Connect4Tablebase.bucket(Connect4Tablebase.hash(layer.getLong(i), seed),
+                                                 buckets);
+                if (++sizes[b] == Byte.MAX_VALUE) {
+                    return false;
+                }
+            }
+        }
+        int largest = 0;
+        for (byte size : sizes) {
+            largest = Math.max(largest, size);
+        }
+
+        long[] used = new long[(int) ((slots + 63L) / 64)];
+        int[] chosen = new int[largest];
+        int[] next = new int[buckets];
+        displacements = new char[buckets];
+        for (int size = largest; size > 0; size--) {
+            int members = 0;
+            for (int b = 0; b < buckets; b++) {
+                if (sizes[b] == size) {
+                    next[b] = members;
+                    members += size;
+                }
+            }
+            if (members == 0) {
+                continue;
+            }
+            long[] hashes = new long[members];
+            for (int discs = cells - maxEmpty; discs < cells; discs++) {
+                Layer layer = new Layer(codeFile(discs), Long.BYTES);
+                for (long i = 0; i < layer.size(); i++) {
+                    long hash = Connect4Tablebase.hash(layer.getLong(i), seed);
+                    int b = Connect4Tablebase.bucket(hash, buckets);
+                    if (sizes[b] == size) {
+                        hashes[next[b]++] = hash;
+                    }
+                }
+            }
+            int first = 0;
+            for (int b = 0; b < buckets; b++) {
+                if (sizes[b] != size) {
+                    continue;
+                }
+                int d = 0;
+                while (!fits(hashes, first, size, d, used, chosen)) {
+                    if (++d > Connect4Tablebase.MAX_DISPLACEMENT) {
+                        return false;
+                    }
+                }
+                for (int j = 0; j < size; j++) {
+                    used[chosen[j] >>> 6] |= 1L << chosen[j];
+                }
+                displacements[b] = (char) d;
+                first += size;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Check if a displacement sends every position of a bucket to a
+     * distinct free slot
+     * @param hashes the hashes of the buckets being placed, grouped by
+     * bucket
+     * @param first the index in hashes of the bucket's first position
+     * @param size the number of positions in the bucket
+     * @param d the displacement to try
+     * @param used the slots already taken
+     * @param chosen receives the slots of the bucket's positions
+     * @return true if the displacement fits, false otherwise
+     */
+    private boolean fits(long[] hashes, int first, int size, int d,
+                         long[] used, int[] chosen) {
+        for (int j = 0; j < size; j++) {
+            int slot = Connect4Tablebase.slot(hashes[first + j], d, slots);
+            if ((used[slot >>> 6] & (1L << slot)) != 0) {
+                return false;
+            }
+            for (int k = 0; k < j; k++) {
+                if (chosen[k] == slot) {
+                    return false;
+                }
+            }
+            chosen[j] = slot;
+        }
+        return true;
+    }
+
+
+    /**
+     * Write the tablebase
+     * @param path the location of the tablebase file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel channel = create(path)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(Connect4Tablebase.MAGIC);
+            buffer.putInt(geometry.getRows());
+            buffer.putInt(geometry.getColumns());
+            buffer.putInt(geometry.getWin());
+            buffer.putInt(maxEmpty);
+            buffer.putInt(count);
+            buffer.putInt(slots);
+            buffer.putInt(displacements.length);
+            buffer.putLong(seed);
+            for (char displacement : displacements) {
+                if (buffer.remaining() < Character.BYTES) {
+                    drain(channel, buffer);
+                }
+                buffer.putChar(displacement);
+            }
+            for (byte packed : slotValues) {
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.put(packed);
+            }
+            drain(channel, buffer);
+        }
+    }
+
+
+    /**
+     * Write the contents of a buffer to a channel and empty the buffer
+     * @param channel the channel to write to
+     * @param buffer the buffer to drain
+     * @throws IOException if the channel cannot be written
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * A layer file, mapped in chunks so that it may exceed the 2 GB a
+     * single mapping can hold
+     */
+    private static class Layer {
+
+        private static final int CHUNK_BYTES = 1 << 30;
+
+        private MappedByteBuffer[] chunks;
+        private int recordBytes;
+        private long size;
+
+
+        /**
+         * Constructor for the Layer object, mapping the whole file
+         * @param path the location of the layer file
+         * @param recordBytes the size of one record: Long.BYTES for codes,
+         * Byte.BYTES for results
+         * @throws IOException if the file cannot be read
+         */
+        Layer(Path path, int recordBytes) throws IOException {
+            this.recordBytes = recordBytes;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long bytes = channel.size();
+                size = bytes / recordBytes;
+                chunks = new MappedByteBuffer[(int) ((bytes + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+                for (int c = 0; c < chunks.length; c++) {
+                    long start = (long) c * CHUNK_BYTES;
+                    chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                            Math.min(CHUNK_BYTES, bytes - start));
+                }
+            }
+        }
+
+
+        /**
+         * Get the number of records
+         * @return the number of records in the file
+         */
+        long size() {
+            return size;
+        }
+
+
+        /**
+         * Read a code
+         * @param index the index of the record
+         * @return the code stored in the record
+         */
+        long getLong(long index) {
+            long offset = index * recordBytes;
+            return chunks[(int) (offset / CHUNK_BYTES)].getLong((int) (offset % CHUNK_BYTES));
+        }
+
+
+        /**
+         * Read a result
+         * @param index the index of the record
+         * @return the result stored in the record
+         */
+        byte getByte(long index) {
+            long offset = index * recordBytes;
+            return chunks[(int) (offset / CHUNK_BYTES)].get((int) (offset % CHUNK_BYTES));
+        }
+
+
+        /**
+         * Find a code in a file of sorted codes
+         * @param code the code to find, which must be in the file
+         * @return the index of its record
+         */
+        long search(long code) {
+            long low = 0;
+            long high = size - 1;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (Long.compareUnsigned(getLong(mid), code) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+
+}
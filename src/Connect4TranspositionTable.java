@@ -0,0 +1,215 @@
+/**
+ * Connect4TranspositionTable.java
+ * fixed-size cache of search results keyed by Connect4Logic.getKey()
+ * or, to share entries between mirror images, getCanonicalKey().
+ *
+ * Entries live in one primitive array sized from a byte budget, so the
+ * table never allocates after construction. Each entry is a single
+ * long: the search result in the low half, and the high half of the
+ * key XORed with the result in the high half. The low bits of the key
+ * already chose the slot, so together they check the whole key. Several
+ * search threads may share one table without locks: an entry torn by
+ * two concurrent writes fails the key check on the next probe and is
+ * treated as a miss.
+ *
+ * Slots are paired into buckets. The first slot of a bucket keeps the
+ * result that took the most work, measured by the number of empty cells
+ * left below the position, unless it belongs to an older search. Any
+ * result it turns away goes to the second slot, which is always
+ * replaced, so the many small subtrees near the leaves are cached too.
+ */
+
+
+import java.util.Arrays;
+
+
+public class Connect4TranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+
+    private static final int BYTES_PER_ENTRY = Long.BYTES;
+    private static final int MIN_ENTRIES = 1024;
+
+    private static final int SCORE_SHIFT = 0;
+    private static final int BOUND_SHIFT = 8;
+    private static final int DEPTH_SHIFT = 10;
+    private static final int AGE_SHIFT = 17;
+    private static final int MOVE_SHIFT = 25;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int DEPTH_MASK = 0x7F;
+    private static final int MOVE_MASK = 0x3F;
+    private static final long RESULT_MASK = 0xFFFFFFFFL;
+
+    private long[] entries;
+    private int bucketMask;
+    private int age;
+
+
+    /**
+     * Constructor for the Connect4TranspositionTable object
+     * @param bytes the memory budget of the table; the number of entries
+     * is the largest power of two that fits in the budget
+     */
+    public Connect4TranspositionTable(long bytes) {
+        long count = Long.highestOneBit(Math.max(bytes / BYTES_PER_ENTRY, MIN_ENTRIES));
+        if (count > (1 << 30)) {
+            throw new IllegalArgumentException("Table budget too large: " + bytes);
+        }
+        entries = new long[(int) count];
+        bucketMask = (int) count - 2;
+    }
+
+
+    /**
+     * Start a new search: entries of earlier searches become the first
+     * ones to be replaced
+     */
+    public void newSearch() {
+        age = (age + 1) & BYTE_MASK;
+    }
+
+
+    /**
+     * Remove every entry
+     */
+    public void clear() {
+        Arrays.fill(entries, 0L);
+    }
+
+
+    /**
+     * Look up a position
+     * @param key the key of the position
+     * @return the packed entry, to be read with getScore, getBound and
+     * getMove, or 0 if the position is not in the table
+     */
+    public long probe(long key) {
+        int index = (int) key & bucketMask;
+        long entry = entries[index];
+        if (entry != 0L && check(entry) == key >>> 32) {
+            return entry & RESULT_MASK;
+        }
+        entry = entries[index + 1];
+        if (entry != 0L && check(entry) == key >>> 32) {
+            return entry & RESULT_MASK;
+        }
+        return 0L;
+    }
+
+
+    /**
+     * Store the result of a search
+     * @param key the key of the position
+     * @param score the score found by the search
+     * @param bound EXACT, LOWER or UPPER depending on how the score
+     * relates to the search window
+     * @param depth the number of empty cells left in the position
+     * @param move the best column found, -1 if none
+     */
+    public void store(long key, int score, int bound, int depth, int move) {
+        int index = (int) key & bucketMask;
+        long old = entries[index];
+        if (old != 0L
+            && check(old) != key >>> 32
+            && unpack(old, AGE_SHIFT, BYTE_MASK) == age
+            && unpack(old, DEPTH_SHIFT, DEPTH_MASK) > depth) {
+            index++;
+        }
+        long result = ((long) (score & BYTE_MASK) << SCORE_SHIFT)
+                      | ((long) bound << BOUND_SHIFT)
+                      | ((long) (depth & DEPTH_MASK) << DEPTH_SHIFT)
+                      | ((long) age << AGE_SHIFT)
+                      | ((long) ((move + 1) & MOVE_MASK) << MOVE_SHIFT);
+        entries[index] = ((key >>> 32 ^ result) << 32) | result;
+    }
+
+
+    /**
+     * Get the high half of the key an entry was stored under
+     * @param entry the entry as stored in the table
+     * @return the high half of the key, unless the entry is torn
+     */
+    private static long check(long entry) {
+        return (entry >>> 32) ^ (entry & RESULT_MASK);
+    }
+
+
+    /**
+     * Get the score of an entry
+     * @param entry the packed entry returned by probe
+     * @return the score stored in the entry
+     */
+    public static int getScore(long entry) {
+        return (byte) unpack(entry, SCORE_SHIFT, BYTE_MASK);
+    }
+
+
+    /**
+     * Get the bound type of an entry
+     * @param entry the packed entry returned by probe
+     * @return EXACT, LOWER or UPPER
+     */
+    public static int getBound(long entry) {
+        return unpack(entry, BOUND_SHIFT, 3);
+    }
+
+
+    /**
+     * Get the best move of an entry
+     * @param entry the packed entry returned by probe
+     * @return the best column stored in the entry, -1 if none
+     */
+    public static int getMove(long entry) {
+        return unpack(entry, MOVE_SHIFT, MOVE_MASK) - 1;
+    }
+
+
+    /**
+     * Extract a field of an entry
+     * @param entry the packed entry
+     * @param shift the position of the field
+     * @param mask the width of the field, as a mask of its low bits
+     * @return the value of the field
+     */
+    private static int unpack(long entry, int shift, int mask) {
+        return (int) (entry >>> shift) & mask;
+    }
+
+
+    /**
+     * Get the number of entries
+     * @return the number of entries in the table
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+
+    /**
+     * Count the entries in use. This scans the whole table, so it is
+     * meant for reports after a search rather than during one.
+     * @return the number of slots holding an entry
+     */
+    public int getUsed() {
+        int used = 0;
+        for (long entry : entries) {
+            if (entry != 0L) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+
+    /**
+     * Return the string representation of the table usage
+     * @return the string describing the table usage
+     */
+    public String toString() {
+        return getUsed() + " of " + getCapacity() + " entries used";
+    }
+
+
+}
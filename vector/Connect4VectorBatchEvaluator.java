@@ -0,0 +1,95 @@
+/**
+ * Connect4VectorBatchEvaluator.java
+ * SIMD implementation of Connect4BatchEvaluator on the incubating
+ * Vector API: each lane of a vector holds one position, so the wins of a
+ * batch are found a whole vector of positions per step of the loop, with
+ * the positions left over at the end checked by the scalar code.
+ *
+ * Only findWins is vectorized. Scoring stays scalar: the score adds up
+ * a dozen terms, C2 gives up inlining a loop body that computes them
+ * all, and the vectors crossing the calls it leaves are boxed, costing
+ * some 400 bytes per position for a few percent of speed. findPlayable
+ * is already vectorized by C2 from the scalar loop. Only connect four is
+ * vectorized; for other win lengths, or where the preferred vector holds
+ * a single long, the constructor fails and Connect4BatchEvaluator.of
+ * falls back to the scalar implementation.
+ *
+ * This file lives apart from src/ so the game builds without the
+ * incubator module. usage, from the project root:
+ * javac --add-modules jdk.incubator.vector -d out src/*.java vector/*.java
+ * java --add-modules jdk.incubator.vector -cp out <main class>
+ */
+
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+public class Connect4VectorBatchEvaluator extends Connect4BatchEvaluator {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    private final int height;
+
+
+    /**
+     * Constructor for the Connect4VectorBatchEvaluator object
+     * @param geometry the board size and win length of the positions
+     * @throws UnsupportedOperationException if the geometry is not
+     * connect four or vectors cannot hold two positions
+     */
+    public Connect4VectorBatchEvaluator(Connect4Geometry geometry) {
+        super(geometry);
+        if (geometry.getWin() != 4 || LONGS.length() < 2) {
+            throw new UnsupportedOperationException("No vector implementation for "
+                                                    + geometry);
+        }
+        this.height = geometry.getHeight();
+    }
+
+
+    /**
+     * Describe the implementation
+     * @return the name of the implementation and its number of lanes
+     */
+    @Override
+    public String getImplementation() {
+        return "vector, " + LONGS.length() + " lanes";
+    }
+
+
+    /**
+     * Find which players have a line
+     * @param masks the discs of one player in each position
+     * @param count the number of positions
+     * @param wins set to true for every position whose player has a line
+     */
+    @Override
+    public void findWins(long[] masks, int count, boolean[] wins) {
+        int bound = LONGS.loopBound(count);
+        for (int i = 0; i < bound; i += LONGS.length()) {
+            LongVector mask = LongVector.fromArray(LONGS, masks, i);
+            LongVector lines = fours(mask, 1)
+                .or(fours(mask, height))
+                .or(fours(mask, height - 1))
+                .or(fours(mask, height + 1));
+            lines.compare(VectorOperators.NE, 0L).intoArray(wins, i);
+        }
+        findWins(masks, bound, count, wins);
+    }
+
+
+    /**
+     * Get the first disc of every four in a row along one direction
+     * @param mask the discs of the player in each lane
+     * @param shift the distance between two neighbouring cells of the line
+     * @return the bitboards of the discs lines start from
+     */
+    private static LongVector fours(LongVector mask, int shift) {
+        LongVector pairs = mask.and(mask.lanewise(VectorOperators.LSHR, shift));
+        return pairs.and(pairs.lanewise(VectorOperators.LSHR, 2 * shift));
+    }
+
+
+}